@@ -0,0 +1,168 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Records snapshots from a thread of its own, so that a slow disk never
+   holds up the tracker (and, through the ContourTracking monitor, the
+   MoteIF receive path).
+
+   write() only puts the snapshot on a bounded queue and never blocks: when
+   the queue is full the snapshot is dropped and counted. The writer thread
+   takes whatever has piled up in one go and encodes the batch; the file is
+   flushed every FLUSH_INTERVAL milliseconds if anything was written, so a
+   crash loses at most that much of the recording. Snapshots must not be
+   modified once handed over.
+
+   A snapshot is only queued under the writer's monitor, and fClosed and
+   fError are only set under it, so every snapshot is either written or
+   counted as dropped, however write() and close() interleave. */
+class AsyncRecordingWriter {
+	static final int QUEUE_CAPACITY = 256;
+	static final int FLUSH_INTERVAL = 1000;
+
+	private final RecordingWriter fWriter;
+	private final BlockingQueue<ContourTracking.Snapshot> fQueue = new ArrayBlockingQueue<ContourTracking.Snapshot>(QUEUE_CAPACITY);
+	private final Thread fThread;
+	private volatile boolean fClosed;
+	private volatile IOException fError;
+
+	/* Counters, readable from any thread */
+	private final AtomicLong fWritten = new AtomicLong();
+	private final AtomicLong fDropped = new AtomicLong();
+	private final AtomicLong fBatches = new AtomicLong();
+	private final AtomicLong fFlushes = new AtomicLong();
+	private volatile int fHighWater;
+
+	AsyncRecordingWriter(OutputStream out) {
+		fWriter = new RecordingWriter(out);
+		fThread = new Thread("recording writer") {
+			public void run() {
+				writeLoop();
+			}
+		};
+		fThread.setDaemon(true);
+		fThread.start();
+	}
+
+	/* Queue snapshot for writing. Returns false if it was dropped because
+	   the queue is full, the writer failed, or it is closed. */
+	boolean write(ContourTracking.Snapshot snapshot) {
+		synchronized(this) {
+			if(fClosed || fError != null || !fQueue.offer(snapshot)) {
+				fDropped.incrementAndGet();
+				return false;
+			}
+		}
+		int depth = fQueue.size();
+		if(depth > fHighWater)
+			fHighWater = depth;
+		return true;
+	}
+
+	/* Write out what is still queued and close the file. Rethrows the error
+	   that stopped the writer thread, if any. */
+	void close() throws IOException {
+		synchronized(this) {
+			fClosed = true;
+		}
+		fThread.interrupt();
+		boolean interrupted = false;
+		while(fThread.isAlive()) {
+			try {
+				fThread.join();
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+
+		try {
+			fWriter.close();
+		} catch(IOException e) {
+			if(fError == null)
+				fError = e;
+		}
+		if(fError != null)
+			throw fError;
+	}
+
+	long getWritten() {
+		return fWritten.get();
+	}
+
+	long getDropped() {
+		return fDropped.get();
+	}
+
+	long getBatches() {
+		return fBatches.get();
+	}
+
+	long getFlushes() {
+		return fFlushes.get();
+	}
+
+	/* Deepest the queue has been */
+	int getHighWater() {
+		return fHighWater;
+	}
+
+	public String toString() {
+		return fWritten + " snapshots written in " + fBatches + " batches, " + fFlushes + " flushes, "
+			+ fDropped + " dropped, queue high water " + fHighWater + "/" + QUEUE_CAPACITY;
+	}
+
+	private void writeLoop() {
+		List<ContourTracking.Snapshot> batch = new ArrayList<ContourTracking.Snapshot>(QUEUE_CAPACITY);
+		long nextFlush = System.currentTimeMillis() + FLUSH_INTERVAL;
+		boolean dirty = false;
+		try {
+			while(true) {
+				/* Read before draining: once closed, nothing more is queued, so
+				   an empty drain after that means we are done */
+				boolean closed = fClosed;
+				ContourTracking.Snapshot snapshot = null;
+				if(!closed) {
+					try {
+						snapshot = fQueue.poll(Math.max(1, nextFlush - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					} catch(InterruptedException e) {
+						// close() wants the rest written out now
+					}
+				}
+				if(snapshot != null)
+					batch.add(snapshot);
+				fQueue.drainTo(batch);
+				if(batch.isEmpty() && closed)
+					break;
+
+				if(!batch.isEmpty()) {
+					for(ContourTracking.Snapshot s: batch)
+						fWriter.write(s);
+					fWritten.addAndGet(batch.size());
+					fBatches.incrementAndGet();
+					batch.clear();
+					dirty = true;
+				}
+
+				long now = System.currentTimeMillis();
+				if(now >= nextFlush) {
+					if(dirty) {
+						fWriter.flush();
+						fFlushes.incrementAndGet();
+						dirty = false;
+					}
+					nextFlush = now + FLUSH_INTERVAL;
+				}
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			synchronized(this) {
+				fError = e;
+			}
+			fDropped.addAndGet(batch.size() + fQueue.size());
+			fQueue.clear();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+import java.util.*;
+
+/* Correspondence between the blobs of two consecutive snapshots.
+
+   match() makes a single pass over the grid indexes of the newer snapshot's
+   label image and records, for every pair of an older blob and a newer blob,
+   how many motes they share (overlap) and whether they touch at all (overlap
+   or 8-connected adjacency). The pairs are kept in a sparse matrix, an
+   open-addressing hash table keyed by the two labels. Every event the
+   tracker reports is derived from that matrix, so detection is linear in the
+   grid size however many blobs there are.
+
+   The tables are kept between calls so that matching does not allocate once
+   they are large enough. */
+class BlobCorrespondence {
+	private static final int EMPTY = -1;
+	private static final ContourTracking.Position[] POSITIONS = ContourTracking.Position.values();
+
+	/* Sparse matrix: key is from label << 32 | to label */
+	private long[] fKeys = new long[0];
+	private int[] fOverlaps = new int[0];
+	private int[] fSlots = new int[0]; // slots in use, in insertion order
+	private int fEntries;
+	private int fMask;
+
+	/* Per-label summaries, indexed by the from or to snapshot's label */
+	private int[] fFromOverlapping = new int[1]; // number of to blobs a from blob overlaps
+	private int[] fToOverlapping = new int[1];   // number of from blobs a to blob overlaps
+	private int[] fBestMatch = new int[1];       // from label sharing most motes with a to blob
+	private int[] fBestOverlap = new int[1];
+	private int[] fBestSuccessor = new int[1];   // to label sharing most motes with a from blob
+	private int[] fBestSuccessorOverlap = new int[1];
+	private boolean fMerge, fSplit;
+
+	void match(ContourTracking.Snapshot from, ContourTracking.Snapshot to) {
+		clear(Math.max(from.size(), to.size()) + 1);
+
+		GridGeometry fromGeometry = from.getGeometry();
+		GridGeometry toGeometry = to.getGeometry();
+		boolean sameLayout = fromGeometry.sameLayout(toGeometry);
+		for(int i = 0; i < to.size(); i++) {
+			int toLabel = to.getLabel(i);
+			if(toLabel == 0)
+				continue;
+
+			int j = sameLayout ? i : fromGeometry.getIndex(toGeometry.getMoteId(i));
+			if(j == -1)
+				continue;
+
+			int fromLabel = from.getLabel(j);
+			if(fromLabel != 0)
+				add(fromLabel, toLabel, 1);
+			for(ContourTracking.Position pos: POSITIONS) {
+				int nbr = fromGeometry.getNeighbor(j, pos);
+				int nbrLabel = nbr == -1 ? 0 : from.getLabel(nbr);
+				if(nbrLabel != 0 && nbrLabel != fromLabel)
+					add(nbrLabel, toLabel, 0);
+			}
+		}
+
+		for(int e = 0; e < fEntries; e++) {
+			int overlap = getOverlap(e);
+			if(overlap == 0)
+				continue;
+
+			int fromLabel = getFromLabel(e);
+			int toLabel = getToLabel(e);
+			if(++fFromOverlapping[fromLabel] > 1)
+				fSplit = true;
+			if(++fToOverlapping[toLabel] > 1)
+				fMerge = true;
+			if(overlap > fBestOverlap[toLabel] || (overlap == fBestOverlap[toLabel] && fromLabel < fBestMatch[toLabel])) {
+				fBestOverlap[toLabel] = overlap;
+				fBestMatch[toLabel] = fromLabel;
+			}
+			if(overlap > fBestSuccessorOverlap[fromLabel] || (overlap == fBestSuccessorOverlap[fromLabel] && toLabel < fBestSuccessor[fromLabel])) {
+				fBestSuccessorOverlap[fromLabel] = overlap;
+				fBestSuccessor[fromLabel] = toLabel;
+			}
+		}
+	}
+
+	/* Number of (from blob, to blob) pairs that touch */
+	int size() {
+		return fEntries;
+	}
+
+	int getFromLabel(int entry) {
+		return (int)(fKeys[fSlots[entry]] >>> 32);
+	}
+
+	int getToLabel(int entry) {
+		return (int)fKeys[fSlots[entry]];
+	}
+
+	/* Number of motes the pair has in common. 0 if the blobs only border
+	   each other. */
+	int getOverlap(int entry) {
+		return fOverlaps[fSlots[entry]];
+	}
+
+	/* True if some newer blob overlaps two or more older ones */
+	boolean isMerge() {
+		return fMerge;
+	}
+
+	/* True if some older blob overlaps two or more newer ones */
+	boolean isSplit() {
+		return fSplit;
+	}
+
+	/* Return the label of the older blob that shares the most motes with the
+	   newer blob toLabel, or 0 if it shares none */
+	int getBestMatch(int toLabel) {
+		return fBestMatch[toLabel];
+	}
+
+	/* Return the label of the newer blob that shares the most motes with the
+	   older blob fromLabel, or 0 if it shares none */
+	int getBestSuccessor(int fromLabel) {
+		return fBestSuccessor[fromLabel];
+	}
+
+	/* Number of newer blobs overlapping the older blob fromLabel */
+	int getOverlapCount(int fromLabel) {
+		return fFromOverlapping[fromLabel];
+	}
+
+	/* Number of older blobs overlapping the newer blob toLabel */
+	int getPredecessorCount(int toLabel) {
+		return fToOverlapping[toLabel];
+	}
+
+	private void clear(int labels) {
+		for(int e = 0; e < fEntries; e++)
+			fKeys[fSlots[e]] = EMPTY;
+		fEntries = 0;
+		fMerge = fSplit = false;
+		if(fBestMatch.length < labels) {
+			fFromOverlapping = new int[labels];
+			fToOverlapping = new int[labels];
+			fBestMatch = new int[labels];
+			fBestOverlap = new int[labels];
+			fBestSuccessor = new int[labels];
+			fBestSuccessorOverlap = new int[labels];
+		} else {
+			Arrays.fill(fFromOverlapping, 0);
+			Arrays.fill(fToOverlapping, 0);
+			Arrays.fill(fBestMatch, 0);
+			Arrays.fill(fBestOverlap, 0);
+			Arrays.fill(fBestSuccessor, 0);
+			Arrays.fill(fBestSuccessorOverlap, 0);
+		}
+	}
+
+	private void add(int fromLabel, int toLabel, int overlap) {
+		if(2 * (fEntries + 1) > fKeys.length)
+			grow();
+
+		long key = (long)fromLabel << 32 | toLabel;
+		int slot = hash(key) & fMask;
+		while(fKeys[slot] != key) {
+			if(fKeys[slot] == EMPTY) {
+				fKeys[slot] = key;
+				fOverlaps[slot] = 0;
+				fSlots[fEntries++] = slot;
+				break;
+			}
+			slot = (slot + 1) & fMask;
+		}
+		fOverlaps[slot] += overlap;
+	}
+
+	private void grow() {
+		long[] keys = fKeys;
+		int[] overlaps = fOverlaps;
+		int[] slots = fSlots;
+		int entries = fEntries;
+
+		int capacity = Math.max(64, keys.length * 2);
+		fKeys = new long[capacity];
+		Arrays.fill(fKeys, EMPTY);
+		fOverlaps = new int[capacity];
+		fSlots = new int[capacity / 2];
+		fMask = capacity - 1;
+		fEntries = 0;
+		for(int e = 0; e < entries; e++) {
+			long key = keys[slots[e]];
+			add((int)(key >>> 32), (int)key, overlaps[slots[e]]);
+		}
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+}
@@ -0,0 +1,117 @@
+/* Connected-component labelling of the above-threshold motes.
+
+   The grid is given as a bit-packed mask, one bit per grid index (row-major,
+   bit i of the mask is bit (i & 63) of word i >> 6). Components use the same
+   8-connectivity as the contour tracker's neighbor positions.
+
+   The classic two-pass algorithm is used: the first pass scans the grid in
+   index order and gives each set cell a provisional label taken from its
+   already-visited neighbors (L, BL, B, BR), recording equivalences in a
+   union-find forest; the second pass resolves every provisional label to a
+   compact final label 1..count. Nothing recurses, and the working arrays are
+   kept between calls so that labelling does not allocate once they are large
+   enough for the grid. */
+class BlobLabeller {
+	/* Label of each grid index, 0 for cells that are not in a blob */
+	private int[] labels = new int[0];
+	/* Union-find forest over provisional labels. A root is always the
+	   smallest label of its set */
+	private int[] parent = new int[1];
+	/* Provisional to final label mapping */
+	private int[] remap = new int[1];
+	private int count;
+
+	/* Label the width x height grid described by mask. Returns the number of
+	   blobs found. */
+	int label(long[] mask, int width, int height) {
+		int cells = width * height;
+		ensureCapacity(cells);
+
+		/* First pass: provisional labels and equivalences */
+		int next = 1;
+		for(int row = 0, i = 0; row < height; row++) {
+			for(int col = 0; col < width; col++, i++) {
+				if((mask[i >>> 6] & (1L << i)) == 0) {
+					labels[i] = 0;
+					continue;
+				}
+
+				int label = 0;
+				if(col > 0)
+					label = merge(label, labels[i - 1]);
+				if(row > 0) {
+					int below = i - width;
+					if(col > 0)
+						label = merge(label, labels[below - 1]);
+					label = merge(label, labels[below]);
+					if(col + 1 < width)
+						label = merge(label, labels[below + 1]);
+				}
+				if(label == 0) {
+					label = next++;
+					parent[label] = label;
+				}
+				labels[i] = label;
+			}
+		}
+
+		/* Second pass: roots are smaller than their members, so a root's final
+		   label is always known by the time one of its members is reached */
+		count = 0;
+		for(int l = 1; l < next; l++) {
+			int root = find(l);
+			remap[l] = root == l ? ++count : remap[root];
+		}
+		for(int i = 0; i < cells; i++) {
+			if(labels[i] != 0)
+				labels[i] = remap[labels[i]];
+		}
+		return count;
+	}
+
+	/* Return the label of grid index idx from the last call to label() */
+	int getLabel(int idx) {
+		return labels[idx];
+	}
+
+	/* Return the number of blobs found by the last call to label() */
+	int getCount() {
+		return count;
+	}
+
+	private void ensureCapacity(int cells) {
+		if(labels.length < cells) {
+			labels = new int[cells];
+			/* A grid can't have more provisional labels than cells */
+			parent = new int[cells + 1];
+			remap = new int[cells + 1];
+		}
+	}
+
+	private int merge(int label, int other) {
+		if(other == 0)
+			return label;
+		if(label == 0)
+			return find(other);
+		return union(label, other);
+	}
+
+	private int find(int label) {
+		while(parent[label] != label) {
+			parent[label] = parent[parent[label]];
+			label = parent[label];
+		}
+		return label;
+	}
+
+	private int union(int a, int b) {
+		a = find(a);
+		b = find(b);
+		if(a < b) {
+			parent[b] = a;
+			return a;
+		}
+		parent[a] = b;
+		return b;
+	}
+}
@@ -0,0 +1,97 @@
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/* What MoteGridPainter draws of a snapshot that does not depend on the size
+   of the panel: the shade of each mote, and the contour of each blob (the
+   splines through its outlines, traced by MarchingSquares, and their
+   control points).
+
+   Built once per snapshot (see Snapshot.getContours), in grid coordinates:
+   mote (col, row) is at (col, row), x to the right and y up. Painting only
+   maps them to the screen. */
+class ContourGeometry {
+	/* How far the curves may stray from the splines, in mote spacings */
+	static final float TOLERANCE = 0.005f;
+
+	/* Mote shades: no mote, below or above threshold, and on the edge of a
+	   blob (a 4-neighbor is on the other side of the threshold) */
+	static final byte EMPTY = 0, BELOW = 1, ABOVE = 2, EDGE = 3;
+
+	private static final ContourTracking.Position[] SIDES = {
+		ContourTracking.Position.L, ContourTracking.Position.R,
+		ContourTracking.Position.U, ContourTracking.Position.B
+	};
+
+	private byte[] fShades;
+	private List<Shape> fCurves = new ArrayList<Shape>();
+	private float[] fControlPoints;
+
+	ContourGeometry(ContourTracking.Snapshot snapshot) {
+		fShades = new byte[snapshot.size()];
+		for(int idx = 0; idx < fShades.length; idx++) {
+			if(snapshot.getMoteId(idx) == -1)
+				continue;
+
+			boolean above = snapshot.isAboveThreshold(idx);
+			boolean same = true;
+			for(ContourTracking.Position side: SIDES) {
+				int nbr = snapshot.getNeighborIndex(idx, side);
+				if(nbr != -1 && snapshot.getMoteId(nbr) != -1 && snapshot.isAboveThreshold(nbr) != above)
+					same = false;
+			}
+			fShades[idx] = same ? (above ? ABOVE : BELOW) : EDGE;
+		}
+
+		/* A closed spline through the vertices of each outline */
+		MarchingSquares outlines = new MarchingSquares();
+		NaturalSpline spline = NaturalSpline.get();
+		int count = outlines.trace(snapshot);
+		int points = 0;
+		for(int i = 0; i < count; i++)
+			points += outlines.getEnd(i) - outlines.getStart(i);
+		fControlPoints = new float[2 * points];
+		StringBuilder trace = Trace.SPLINES.isOn() ? new StringBuilder() : null;
+		for(int i = 0, p = 0; i < count; i++) {
+			int start = outlines.getStart(i), end = outlines.getEnd(i);
+			for(int v = start; v < end; v++) {
+				fControlPoints[p++] = outlines.getX(v);
+				fControlPoints[p++] = outlines.getY(v);
+			}
+			if(trace != null) {
+				trace.append("spline ").append(i).append(':');
+				for(int v = start; v < end; v++)
+					trace.append(String.format(" (%.2f, %.2f)", outlines.getX(v), outlines.getY(v)));
+				trace.append('\n');
+			}
+
+			spline.setKnots(outlines.getXs(), outlines.getYs(), start, end - start);
+			int n = spline.flatten(true, TOLERANCE);
+			float[] polyline = spline.getPolyline();
+			Path2D.Float curve = new Path2D.Float(Path2D.WIND_NON_ZERO, n);
+			curve.moveTo(polyline[0], polyline[1]);
+			for(int k = 1; k < n; k++)
+				curve.lineTo(polyline[2 * k], polyline[2 * k + 1]);
+			curve.closePath();
+			fCurves.add(curve);
+		}
+		if(trace != null)
+			Trace.SPLINES.print(trace.length() > 0 ? trace.toString() : "no splines");
+	}
+
+	/* Shade of the mote at grid index idx */
+	byte getShade(int idx) {
+		return fShades[idx];
+	}
+
+	/* The blobs' contour splines, as closed polylines */
+	List<Shape> getCurves() {
+		return fCurves;
+	}
+
+	/* The control points of the contour splines, x and y alternately */
+	float[] getControlPoints() {
+		return fControlPoints;
+	}
+}
@@ -9,12 +9,11 @@
  */
 
 import net.tinyos.message.*;
+import net.tinyos.packet.*;
 import net.tinyos.util.*;
 import java.io.*;
 import java.util.*;
 import java.lang.Math;
-import java.awt.Color;
-import java.awt.geom.Point2D;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 
@@ -30,144 +29,239 @@ import java.text.SimpleDateFormat;
    - the Node and Data objects store data received from the motes and support
      simple queries
    - the Window and Graph and miscellaneous support objects implement the
-     GUI and graph drawing
+     GUI and graph drawing; with -headless, a HeadlessListener takes the
+     Window's place and no AWT or Swing class is loaded
    - the ContourTracking object talks to the motes and coordinates the other
      objects
 
-   Synchronization is handled through the ContourTracking object. Any operation
-   that reads or writes the mote data must be synchronized on ContourTracking.
-   Note that the messageReceived method below is synchronized, so no further
-   synchronization is needed when updating state based on received messages.
+   Mote data is only written by the threads receiving messages
+   (messageReceived, one thread per base station given with -comm) and is
+   read from any thread without locking (see Node), so that neither the
+   tracker nor repainting can hold up the radio. Base stations contend when
+   they hear the same mote, and otherwise only on messages that move the
+   latest sample number or timestamp over all motes forward (or, after a
+   reboot, back) and on a mote's first message (see Data). The receive path also takes beaconLock, briefly, which
+   guards the sampling period, threshold and version. The tracking state
+   (geometry, grid and snapshots) is guarded by the ContourTracking
+   object.
+
+   The tracker does not look at the motes' latest samples but builds one
+   grid state per sampling period from their timestamped samples (see
+   EpochAligner), so events are detected at the sensing rate. It runs on a
+   thread of its own as data arrives, apart from the beacons (see
+   TrackingScheduler).
 */
 
-public class ContourTracking extends TimerTask implements MessageListener, Serializable
+public class ContourTracking implements MessageListener, Serializable
 {
-	static final Integer MOTE_IDs[];
-	static {
-		MOTE_IDs = new Integer[16];
-		for(int i = 0; i < MOTE_IDs.length ; i++)
-			MOTE_IDs[i] = new Integer(i + 1);
-	}
-
 	enum Position {
 		BL, B, BR, L, R, UL, U, UR
 	}
 
-	class Mote implements Serializable {
-		Color fColor;
-		int fThreshold;
-		int fSample;
-		long fSampleTimestamp;
-		Mote(int threshold, int sample, long timestamp) {
-			fThreshold = threshold;
-			fSample = sample;
-			fSampleTimestamp = timestamp;
+	/* A blob is a set of grid indexes of its snapshot, held as a bitset (bit i
+	   of fBits is bit (i & 63) of word i >> 6), so that intersection and
+	   adjacency tests between blobs are word-wise ANDs. */
+	static class Blob {
+		Snapshot fSnapshot;
+		int fLabel; // label in the snapshot's label image
+		int fId;    // blob id, kept across snapshots for as long as the blob lives
+		long[] fBits;
+		int fSize;
+		long[] fDilated; // fBits grown by one mote in every direction
+		boolean fHasCenter;
+		double fCenterX, fCenterY;
+		Blob(Snapshot snapshot, int label) {
+			fSnapshot = snapshot;
+			fLabel = label;
+			fBits = new long[(snapshot.size() + 63) / 64];
 		}
 
-		Color getColor() {
-			return fColor;
+		int size() {
+			return fSize;
 		}
 
-		void setColor(Color color) {
-			fColor = color;
+		int getLabel() {
+			return fLabel;
 		}
 
-		int getSample() {
-			return fSample;
+		int getId() {
+			return fId;
 		}
 
-		long getSampleTimestamp() {
-			return fSampleTimestamp;
+		void setId(int id) {
+			fId = id;
 		}
-		
-		boolean isAboveThreshold() {
-			return fSample >= fThreshold;
+
+		void addIndex(int idx) {
+			long bit = 1L << idx;
+			if((fBits[idx >>> 6] & bit) == 0) {
+				fBits[idx >>> 6] |= bit;
+				fSize++;
+				fDilated = null;
+				fHasCenter = false;
+			}
 		}
-	}
 
-	class Blob implements Serializable {
-		Snapshot fSnapshot;
-		Set<Integer> fMotes;
-		Blob(Snapshot snapshot) {
-			fSnapshot = snapshot;
-			fMotes = new TreeSet<Integer>();
+		void addMote(int id) {
+			int idx = fSnapshot.getMoteIndex(id);
+			if(idx != -1)
+				addIndex(idx);
 		}
 
-		int size() {
-			return fMotes.size();
+		boolean containsIndex(int idx) {
+			return idx >= 0 && idx < fSnapshot.size() && (fBits[idx >>> 6] & (1L << idx)) != 0;
 		}
 
-		void addMote(int id) {
-			Mote mote = fSnapshot.getMote(id);
-			if(mote == null || !mote.isAboveThreshold())
-				return;
+		boolean contains(int id) {
+			return containsIndex(fSnapshot.getMoteIndex(id));
+		}
 
-			fMotes.add(MOTE_IDs[id-1]);
-
-			// search for neighbors BR, R, UL, U, UR
-			Set<Position> positions = new TreeSet<Position>();
-			positions.add(Position.L);
-			positions.add(Position.B);
-			positions.add(Position.R);
-			positions.add(Position.U);
-			positions.add(Position.BL);
-			positions.add(Position.BR);
-			positions.add(Position.UL);
-			positions.add(Position.UR);
-			for(Position pos: positions) {
-				int neighborId = fSnapshot.getMoteNeighborId(id, pos);
-				mote = fSnapshot.getMote(neighborId);
-				//System.out.println("mote #" + id + ". has neighbor Id: " + neighborId + " and mote: " + mote);
-				if(mote != null && mote.isAboveThreshold() && !contains(neighborId))
-					addMote(neighborId);
+		/* Return the first grid index >= from in this blob, or -1. Iterate with
+		   for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) */
+		int nextIndex(int from) {
+			int w = from >>> 6;
+			if(w >= fBits.length)
+				return -1;
+
+			long word = fBits[w] & (-1L << from);
+			while(word == 0) {
+				if(++w == fBits.length)
+					return -1;
+				word = fBits[w];
 			}
+			return (w << 6) + Long.numberOfTrailingZeros(word);
 		}
 
-		boolean contains(int id) {
-			if(id < 1 || id > MOTE_IDs.length - 1)
-				return false;
-
-			return fMotes.contains(MOTE_IDs[id-1]);
+		/* Blobs of snapshots with different layouts are compared by mote id */
+		private boolean isComparable(Blob blob) {
+			return fSnapshot.getGeometry().sameLayout(blob.fSnapshot.getGeometry());
 		}
 
-		Set<Integer> getMotes() {
-			return fMotes;
+		private long[] getDilated() {
+			if(fDilated == null)
+				fDilated = fSnapshot.getGeometry().dilate(fBits);
+			return fDilated;
 		}
 
 		boolean isNeighboring(Blob blob) {
 			if(blob == this || isIntersected(blob))
 				return false;
 
-			for(Integer thatId: blob.getMotes()) {
-				for(Integer thisId: fMotes)
-					if(fSnapshot.isNeighboringMotes(thisId.intValue(), thatId.intValue()))
-						return true;
+			if(!isComparable(blob)) {
+				for(int thatIdx = blob.nextIndex(0); thatIdx != -1; thatIdx = blob.nextIndex(thatIdx + 1)) {
+					int thatId = blob.fSnapshot.getMoteId(thatIdx);
+					for(int thisIdx = nextIndex(0); thisIdx != -1; thisIdx = nextIndex(thisIdx + 1))
+						if(fSnapshot.isNeighboringMotes(fSnapshot.getMoteId(thisIdx), thatId))
+							return true;
+				}
+				return false;
 			}
+
+			long[] dilated = getDilated();
+			for(int w = 0; w < fBits.length; w++)
+				if((dilated[w] & blob.fBits[w]) != 0)
+					return true;
+
 			return false;
 		}
 
 		boolean isIntersected(Blob blob) {
-			for(Integer id: blob.getMotes())
-				if(fMotes.contains(id))
+			if(!isComparable(blob)) {
+				for(int idx = blob.nextIndex(0); idx != -1; idx = blob.nextIndex(idx + 1))
+					if(contains(blob.fSnapshot.getMoteId(idx)))
+						return true;
+
+				return false;
+			}
+
+			for(int w = 0; w < fBits.length; w++)
+				if((fBits[w] & blob.fBits[w]) != 0)
 					return true;
 
 			return false;
 		}
 
-		public Point2D getCenter() {
+		/* Centroid column of the blob's motes */
+		double getCenterX() {
+			computeCenter();
+			return fCenterX;
+		}
+
+		/* Centroid row of the blob's motes */
+		double getCenterY() {
+			computeCenter();
+			return fCenterY;
+		}
+
+		private void computeCenter() {
+			if(fHasCenter)
+				return;
+
 			double x = 0, y = 0;
-			final int DIM = fSnapshot.getGridDimension();
-			for(Integer id: fMotes) {
-				int idx = fSnapshot.getMoteIndex(id.intValue());
-				x += idx % DIM;
-				y += idx / DIM;
+			GridGeometry geometry = fSnapshot.getGeometry();
+			for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+				x += geometry.getCol(idx);
+				y += geometry.getRow(idx);
 			}
+			fCenterX = x / fSize;
+			fCenterY = y / fSize;
+			fHasCenter = true;
+		}
+	}
+
+	/* What happened to one blob between two snapshots. fBlobId is the id of
+	   the blob the event is about: the surviving blob of a MERGE, the original
+	   blob of a SPLIT, the vanished blob of a VANISH. fRelatedIds lists the
+	   blobs it merged with or split into. fDx, fDy are the centroid's
+	   displacement in grid cells, fVelocityX, fVelocityY the same per second
+	   (0 if the snapshots' timestamps don't allow it), fAreaDelta the change in
+	   the number of motes. */
+	static class BlobEvent {
+		enum Type {
+			FORM, VANISH, MERGE, SPLIT, EXPAND, SHRINK, MOVE
+		}
+
+		Type fType;
+		int fBlobId;
+		int[] fRelatedIds = new int[0];
+		double fDx, fDy;
+		double fVelocityX, fVelocityY;
+		int fAreaDelta;
+
+		BlobEvent(Type type, int blobId) {
+			fType = type;
+			fBlobId = blobId;
+		}
+
+		void addRelatedId(int id) {
+			fRelatedIds = Arrays.copyOf(fRelatedIds, fRelatedIds.length + 1);
+			fRelatedIds[fRelatedIds.length - 1] = id;
+		}
+
+		Type getType() {
+			return fType;
+		}
 
-			return new Point2D.Double(x / fMotes.size(), y / fMotes.size());
+		int getBlobId() {
+			return fBlobId;
+		}
+
+		public String toString() {
+			String line = "blob " + fBlobId + " " + fType;
+			if(fRelatedIds.length > 0) {
+				line += fType == Type.MERGE ? " with" : " into";
+				for(int i = 0; i < fRelatedIds.length; i++)
+					line += (i == 0 ? " " : ", ") + fRelatedIds[i];
+			}
+			if(fDx != 0 || fDy != 0)
+				line += String.format(" by (%.2f, %.2f), velocity (%.2f, %.2f)/s", fDx, fDy, fVelocityX, fVelocityY);
+			if(fAreaDelta != 0)
+				line += ", area " + (fAreaDelta > 0 ? "+" : "") + fAreaDelta;
+			return line;
 		}
 	}
 
-	static class Event implements Serializable {
+	static class Event {
 		enum Direction {
 			EAST, WEST, SOUTH, NORTH, NE, NW, SE, SW
 		}
@@ -233,40 +327,74 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		}
 	}
 
-	class Snapshot implements Serializable {
-		Map<Integer, Mote> fMoteGrid;
+	/* A snapshot of the mote grid. Samples are addressed by grid index (see
+	   GridGeometry), so that id/index/neighbor lookups are all constant time.
+	   Empty cells and motes without data have sample -1. */
+	static class Snapshot {
+		GridGeometry fGeometry;
+		int fThreshold;
+		int[] fSamples;
+		long[] fTimestamps;
+		long[] fMask; // above-threshold bit per grid index
+		int[] fLabels; // blob label per grid index, 0 if not in a blob
+		Blob[] fBlobsByLabel;
 		Set<Blob> fBlobs;
 		Event fEvent;
-		Snapshot(ContourTracking contourTracker) {
-			fMoteGrid = new TreeMap<Integer, Mote>();
-			fBlobs = new HashSet<Blob>();
-			for(int i = 0; i < contourTracker.getMotesCount(); i++) {
-				int id = window.moteListModel.get(i);
-				Mote mote = new Mote(contourTracker.getThreshold(), data.getData(id, data.maxX(id)), data.getLastSampleTimestamp(id));
-				putMote(id, mote);
+		List<BlobEvent> fBlobEvents = new ArrayList<BlobEvent>();
+		ContourGeometry fContours;
+		Snapshot(ThresholdGrid grid) {
+			fGeometry = grid.getGeometry();
+			fThreshold = grid.getThreshold();
+			int size = fGeometry.size();
+			fSamples = new int[size];
+			fTimestamps = new long[size];
+			fLabels = new int[size];
+			for(int i = 0; i < size; i++) {
+				fSamples[i] = grid.getSample(i);
+				fTimestamps[i] = grid.getSampleTimestamp(i);
+				fLabels[i] = grid.getLabel(i);
 			}
+			fMask = grid.getMask().clone();
+			addBlobs();
+		}
 
-			// blob clustering
-			for(Map.Entry<Integer, Mote> entry: fMoteGrid.entrySet()) {
-				if(!entry.getValue().isAboveThreshold())
-					continue;
+		/* A snapshot read back from a recording. The arrays are taken over,
+		   not copied. */
+		Snapshot(GridGeometry geometry, int threshold, int[] samples, long[] timestamps, long[] mask, int[] labels) {
+			fGeometry = geometry;
+			fThreshold = threshold;
+			fSamples = samples;
+			fTimestamps = timestamps;
+			fMask = mask;
+			fLabels = labels;
+			addBlobs();
+		}
 
-				boolean contained = false;
-				for(Blob blob: fBlobs) {
-					if(blob.contains(entry.getKey().intValue())) {
-						contained = true;
-						break;
-					}
-				}
-				if(contained)
+		/* One blob per label of the label image */
+		private void addBlobs() {
+			int size = fGeometry.size();
+			fBlobsByLabel = new Blob[size + 1];
+			fBlobs = new HashSet<Blob>();
+			for(int i = 0; i < size; i++) {
+				int label = fLabels[i];
+				if(label == 0)
 					continue;
 
-				Blob blob = new Blob(this);
-				blob.addMote(entry.getKey().intValue());
-				fBlobs.add(blob);
+				if(fBlobsByLabel[label] == null) {
+					fBlobsByLabel[label] = new Blob(this, label);
+					fBlobs.add(fBlobsByLabel[label]);
+				}
+				fBlobsByLabel[label].addIndex(i);
 			}
 		}
 
+		/* What MoteGridPainter draws of the snapshot, built on first use */
+		synchronized ContourGeometry getContours() {
+			if(fContours == null)
+				fContours = new ContourGeometry(this);
+			return fContours;
+		}
+
 		Event getEvent() {
 			return fEvent;
 		}
@@ -274,9 +402,22 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		void setEvent(Event event) {
 			fEvent = event;
 		}
-			
+
+		List<BlobEvent> getBlobEvents() {
+			return fBlobEvents;
+		}
+
+		void setBlobEvents(List<BlobEvent> events) {
+			fBlobEvents = events;
+		}
+
+		GridGeometry getGeometry() {
+			return fGeometry;
+		}
+
+		/* Number of grid indexes, including empty cells */
 		int size() {
-			return fMoteGrid.size();
+			return fGeometry.size();
 		}
 
 		int sizeOfBlobs() {
@@ -291,116 +432,65 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 			return fBlobs.size();
 		}
 
-		void putMote(int id, Mote mote) {
-			if(mote == null || id < 1 || id > MOTE_IDs.length)
-				return;
+		Set<Blob> getBlobs() {
+			return fBlobs;
+		}
 
-			fMoteGrid.put(MOTE_IDs[id-1], mote);
+		/* Label of the blob at grid index idx, 0 if it isn't in a blob */
+		int getLabel(int idx) {
+			return fLabels[idx];
 		}
 
-		Set<Blob> getBlobs() {
-			return fBlobs;
+		Blob getBlob(int label) {
+			return fBlobsByLabel[label];
 		}
 
-		Set<Map.Entry<Integer, Mote>> entrySet() {
-			return fMoteGrid.entrySet();
+		int getThreshold() {
+			return fThreshold;
 		}
 
-		Mote getMote(int id) {
-			if(id < 1 || id > MOTE_IDs.length)
-				return null;
+		int getSample(int idx) {
+			return fSamples[idx];
+		}
 
-			return fMoteGrid.get(MOTE_IDs[id-1]);
+		long getSampleTimestamp(int idx) {
+			return fTimestamps[idx];
 		}
 
-		int getMoteIndex(int id) {
-			if(id < 1 || id > MOTE_IDs.length)
-				return -1;
-			
-			int idx = 0;
-			Integer key = MOTE_IDs[id-1];
-			for(Integer k: fMoteGrid.keySet()) {
-				if(k.intValue() == key.intValue())
-					return idx;
+		boolean isAboveThreshold(int idx) {
+			return fSamples[idx] >= 0 && fSamples[idx] >= fThreshold;
+		}
 
-				idx++;
-			}
-			return -1;
+		boolean isMoteAboveThreshold(int id) {
+			int idx = getMoteIndex(id);
+			return idx != -1 && isAboveThreshold(idx);
 		}
 
-		int getMoteId(int idx) {
-			int i = 0;
-			for(Integer key: fMoteGrid.keySet()) {
-				if(i == idx)
-					return key.intValue();
+		int getMoteIndex(int id) {
+			return fGeometry.getIndex(id);
+		}
 
-				i++;
-			}
-			return -1;
+		int getMoteId(int idx) {
+			return fGeometry.getMoteId(idx);
 		}
 
-		int getGridDimension() {
-			return fMoteGrid.size() <= 9 ? 3 : 4;
+		int getNeighborIndex(int idx, Position pos) {
+			return fGeometry.getNeighbor(idx, pos);
 		}
 
 		int getMoteNeighborId(int id, Position pos) {
-			int idx = getMoteIndex(id);
-			if(idx == -1)
-				return -1;
-
-			int nbrIdx = -1;
-			int row = idx / getGridDimension();
-			int col = idx % getGridDimension();
-			switch(pos) {
-				case BL:
-					return row - 1 >= 0 && col - 1 >=0 ? getMoteId(idx - getGridDimension() - 1) : -1;
-				case B:
-					return row - 1 >= 0 ? getMoteId(idx - getGridDimension()) : -1;
-				case BR:
-					return row - 1 >= 0 && col + 1 < getGridDimension() ? getMoteId(idx - getGridDimension() + 1) : -1;
-				case L:
-					return col - 1 >= 0 ? getMoteId(idx - 1) : -1;
-				case R:
-					return col + 1 < getGridDimension() ? getMoteId(idx + 1) : -1;
-				case UL:
-					return row + 1 < getGridDimension() && col - 1 >=0 ? getMoteId(idx + getGridDimension() - 1) : -1;
-				case U:
-					return row + 1 < getGridDimension() ? getMoteId(idx + getGridDimension()) : -1;
-				case UR:
-				default:
-					return row + 1 < getGridDimension() && col + 1 < getGridDimension() ? getMoteId(idx + getGridDimension() + 1) : -1;
-			}
+			return getMoteId(getNeighborIndex(getMoteIndex(id), pos));
 		}
 
 		boolean isNeighboringMotes(int thisId, int thatId) {
-			if(getMoteIndex(thisId) == -1 || getMoteIndex(thatId) == -1)
-				return false;
-				
-			if(getMoteNeighborId(thisId, Position.B) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.L) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.R) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.U) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.BL) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.BR) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.UL) == thatId)
-				return true;
-			else if(getMoteNeighborId(thisId, Position.UR) == thatId)
-				return true;
-
-			return false;
+			return fGeometry.isNeighboring(getMoteIndex(thisId), getMoteIndex(thatId));
 		}
 
 		long getLatestSampleTimestamp() {
 			long timestamp = -1;
-			for(Map.Entry<Integer, Mote> entry: fMoteGrid.entrySet()) {
-				if(timestamp < entry.getValue().getSampleTimestamp())
-					timestamp = entry.getValue().getSampleTimestamp();
+			for(int i = 0; i < fTimestamps.length; i++) {
+				if(timestamp < fTimestamps[i])
+					timestamp = fTimestamps[i];
 			}
 
 			return timestamp;
@@ -408,9 +498,9 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 
 		long getEarliestSampleTimestamp() {
 			long timestamp = Long.MAX_VALUE;
-			for(Map.Entry<Integer, Mote> entry: fMoteGrid.entrySet()) {
-				if(timestamp > entry.getValue().getSampleTimestamp())
-					timestamp = entry.getValue().getSampleTimestamp();
+			for(int i = 0; i < fTimestamps.length; i++) {
+				if(fTimestamps[i] >= 0 && timestamp > fTimestamps[i])
+					timestamp = fTimestamps[i];
 			}
 
 			return timestamp;
@@ -420,61 +510,80 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 			if(snapshot == null)
 				return true;
 			
-			if(fMoteGrid.size() != snapshot.size())
+			if(!fGeometry.sameLayout(snapshot.getGeometry()))
 				return true;
 
-			for(Map.Entry<Integer, Mote> entry: fMoteGrid.entrySet()) {
-				int id = entry.getKey().intValue();
-				Mote thisMote = entry.getValue();
-				Mote thatMote = snapshot.getMote(id);
-				if(thatMote == null || thisMote.isAboveThreshold() != thatMote.isAboveThreshold())
-					return true;
-			}
-			return false;
+			return !Arrays.equals(fMask, snapshot.fMask);
 		}
 
 		void debug() {
-			System.out.println("------------------------------------------------------------------");
-			System.out.print("snapshot {");
-			Set<Map.Entry<Integer, Mote>> entrySet = fMoteGrid.entrySet();
-			for(Iterator<Map.Entry<Integer, Mote>> itr = entrySet.iterator(); itr.hasNext();) {
-				Map.Entry<Integer, Mote> entry = itr.next();
-				System.out.print(entry.getKey().intValue() + (itr.hasNext() ? ", " : ""));
+			System.out.print(describe());
+		}
+
+		/* The snapshot's motes, blobs and events, for debugging */
+		String describe() {
+			StringBuilder text = new StringBuilder();
+			text.append("------------------------------------------------------------------\n");
+			text.append("snapshot " + fGeometry.getWidth() + "x" + fGeometry.getHeight() + " {");
+			String sep = "";
+			for(int i = 0; i < fGeometry.size(); i++) {
+				if(fGeometry.getMoteId(i) != -1) {
+					text.append(sep).append(fGeometry.getMoteId(i));
+					sep = ", ";
+				}
 			}
-			System.out.println("}");
+			text.append("}\n");
 
 			for(Blob blob: fBlobs) {
-				System.out.print("blob {");
-				Set<Integer> ids = blob.getMotes();
-				for(Iterator<Integer> itr = ids.iterator(); itr.hasNext();) {
-					Integer id = itr.next();
-					System.out.print(id.intValue() + (itr.hasNext() ? ", " : ""));
-				}
-				System.out.println("}");
+				text.append("blob " + blob.getId() + " {");
+				for(int idx = blob.nextIndex(0); idx != -1; idx = blob.nextIndex(idx + 1))
+					text.append(idx == blob.nextIndex(0) ? "" : ", ").append(getMoteId(idx));
+				text.append("}\n");
 			}
 
-			System.out.println("Earliest Sample Timestamp: " + getEarliestSampleTimestamp());
-			System.out.println("Latest Sample Timestamp: " + getLatestSampleTimestamp());
-			System.out.println("Timestamp Difference: " + (getLatestSampleTimestamp() - getEarliestSampleTimestamp()));
-			System.out.println("Event(s): " + fEvent);
+			text.append("Earliest Sample Timestamp: " + getEarliestSampleTimestamp() + "\n");
+			text.append("Latest Sample Timestamp: " + getLatestSampleTimestamp() + "\n");
+			text.append("Timestamp Difference: " + (getLatestSampleTimestamp() - getEarliestSampleTimestamp()) + "\n");
+			text.append("Event(s): " + fEvent + "\n");
+			for(BlobEvent event: fBlobEvents)
+				text.append("  " + event + "\n");
+			return text.toString();
 		}
 	}
 
-	transient MoteIF mote;
-	transient Data data;
-	transient Window window;
+	/* One connection per base station, from -comm, or the default one
+	   (MOTECOM) */
+	transient List<String> sources = new ArrayList<String>();
+	transient List<MoteIF> motes = new ArrayList<MoteIF>();
+	transient volatile Data data;
+	/* Where to keep mote data, or null to keep it on the heap */
+	transient MappedSampleStore sampleStore;
+	/* The GUI, or the console when headless */
+	transient TrackingListener window;
+	boolean headless;
+	transient BlobLabeller labeller = new BlobLabeller();
+	transient BlobCorrespondence correspondence = new BlobCorrespondence();
 
 	/* The current sampling period. If we receive a message from a mote
 	   with a newer version, we update our interval. If we receive a message
 	   with an older version, we broadcast a message with the current interval
 	   and version. If the user changes the interval, we increment the
 	   version and broadcast the new interval and version. */
-	int interval = Constants.DEFAULT_INTERVAL;
-	int threshold = Constants.DEFAULT_THRESHOLD;
-	int version = 0;
-
-	boolean fRecording;
-	transient ObjectOutputStream fOut;
+	volatile int interval = Constants.DEFAULT_INTERVAL;
+	volatile int threshold = Constants.DEFAULT_THRESHOLD;
+	volatile int version = 0;
+	/* Guards updates of interval, threshold and version */
+	transient final Object beaconLock = new Object();
+
+	/* Builds the grid once per sampling epoch */
+	transient EpochAligner aligner = new EpochAligner();
+	/* Sends beacons and runs the tracker */
+	transient TrackingScheduler scheduler;
+
+	volatile boolean fRecording;
+	/* Recording is done by a writer thread, so that disk I/O never happens
+	   while holding the ContourTracking monitor */
+	transient AsyncRecordingWriter fOut;
 	public boolean startRecording() {
 		if(fRecording)
 			return false;
@@ -483,10 +592,9 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
 		String filename = dateFormat.format(calendar.getTime()) + ".ect";
 		try {
-			FileOutputStream fos = new FileOutputStream(filename);
-			fOut = new ObjectOutputStream(fos);
-			if(!snapshots.isEmpty());
-				fOut.writeObject(snapshots.lastElement());
+			fOut = new AsyncRecordingWriter(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+			if(!snapshots.isEmpty())
+				fOut.write(snapshots.lastElement());
 		} catch(IOException e) {
 			e.printStackTrace();
 			return false;
@@ -500,13 +608,13 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		if(!fRecording)
 			return false;
 
+		fRecording = false;
 		try {
 			fOut.close();
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
-
-		fRecording = false;
+		window.recordingStopped(fOut.getWritten(), fOut.getDropped());
 		return true;
 	}
 
@@ -519,59 +627,108 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		return null;
 	}
 
-	/* TimerTask: update motes clock periodically */
-	public void run() {
-		sendBeacon();
-		track();
-	}
-
 	/* Main entry point */
 	void exec() {
-		data = new Data(this);
-		window = new Window(this);
-		window.setup();
-		mote = new MoteIF(PrintStreamMessenger.err);
-		mote.registerListener(new ContourTrackingMsg(), this);
-		new Timer().schedule(this, 0, 500);
+		if(sources.isEmpty()) {
+			motes.add(new MoteIF(PrintStreamMessenger.err));
+		} else {
+			for(String source: sources)
+				motes.add(new MoteIF(BuildSource.makePhoenix(source, PrintStreamMessenger.err)));
+		}
+		start();
+		/* Each source delivers its messages on a thread of its own */
+		for(MoteIF mote: motes)
+			mote.registerListener(new ContourTrackingMsg(), this);
+	}
+
+	/* Set up the data, the user interface and the scheduler, ready for
+	   messageReceived. MoteFieldSimulator calls this instead of exec, to feed
+	   messageReceived itself. */
+	void start() {
+		data = new Data(this, sampleStore);
+		if(headless) {
+			window = new HeadlessListener(this);
+		} else {
+			Window w = new Window(this);
+			w.setup();
+			window = w;
+		}
+		scheduler = new TrackingScheduler(this);
+		scheduler.start();
+	}
+
+	/* Track every sampling epoch whose samples are in. Called by the
+	   scheduler's tracker thread. */
+	synchronized void track() {
+		ThresholdGrid grid = getGrid();
+		if(grid.getThreshold() != threshold)
+			grid.setThreshold(threshold);
+
+		Data data = this.data;
+		int interval = this.interval;
+		long epoch;
+		while((epoch = aligner.nextEpoch(data, interval)) != -1) {
+			aligner.fill(grid, data, epoch, interval);
+			trackEpoch(grid);
+		}
 	}
 
-	private synchronized boolean track() {
-		Snapshot snapshot = new Snapshot(this);
+	private void trackEpoch(ThresholdGrid grid) {
+		/* Nothing to do unless some mote crossed the threshold */
+		if(!grid.relabel(labeller))
+			return;
+
+		Snapshot snapshot = new Snapshot(grid);
 		if(snapshots.isEmpty()) {
+			identifyBlobs(null, snapshot);
 			snapshots.add(snapshot);
-			return true;
+			return;
 		}
 
 		Snapshot prevSnapshot = snapshots.lastElement();
 		if(!snapshot.differs(prevSnapshot)) {
 			//System.out.println("no significant change with the previous snapshot");
+			identifyBlobs(prevSnapshot, snapshot);
 			snapshots.remove(prevSnapshot);
 			snapshots.add(snapshot);
-			return true;
+			return;
 		}
 
 		detect(prevSnapshot, snapshot);
-		snapshot.debug();
-		if(fRecording) {
-			try {
-				fOut.writeObject(snapshot);
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
-		}
+		if(Trace.SNAPSHOTS.isOn())
+			Trace.SNAPSHOTS.print(snapshot.describe());
+		if(fRecording)
+			fOut.write(snapshot);
 		snapshots.add(snapshot);
 		if(snapshots.size() > 10)
 			snapshots.remove(snapshots.firstElement());
-
-		return true;
 	}
 
-	public int getMotesCount() {
-		return window.moteListModel.size();
+	/* Mote layout on the tracking grid. Either loaded from a layout file at
+	   startup, or rebuilt from the known motes whenever a new one shows up. */
+	transient volatile GridGeometry geometry;
+	boolean fixedGeometry;
+
+	GridGeometry getGeometry() {
+		GridGeometry geometry = this.geometry;
+		if(geometry == null) {
+			int[] ids = data.getNodeIds().clone();
+			Arrays.sort(ids);
+			this.geometry = geometry = GridGeometry.forMotes(ids, ids.length);
+		}
+		return geometry;
 	}
 
-	public int getGridDimension() {
-		return window.moteListModel.size() <= 9 ? 3 : 4;
+	/* Live threshold state of the grid. Rebuilt whenever the layout changes,
+	   and set to the motes' values at each epoch by the aligner. */
+	transient ThresholdGrid grid;
+
+	ThresholdGrid getGrid() {
+		GridGeometry geometry = getGeometry();
+		if(grid == null || grid.getGeometry() != geometry) {
+			grid = new ThresholdGrid(geometry, threshold);
+		}
+		return grid;
 	}
 
 	// function two print 2 decimal float
@@ -580,72 +737,186 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 		return Double.valueOf(twoDForm.format(d));
 	}
 	
-	private void detect(Snapshot fromSnapshot, Snapshot toSnapshot) {
-		if(fromSnapshot == null || toSnapshot == null)
+	/* Blob ids. A blob keeps the id of the previous blob it shares the most
+	   motes with, provided that blob shares the most motes with it too, or of
+	   a previous blob of the same size it only borders; every other blob gets
+	   a new id. */
+	transient int nextBlobId = 1;
+
+	/* Give toSnapshot's blobs their ids and blob events, as successors of
+	   fromSnapshot's (fresh ids if fromSnapshot is null) */
+	void identifyBlobs(Snapshot fromSnapshot, Snapshot toSnapshot) {
+		if(fromSnapshot == null) {
+			for(Blob blob: toSnapshot.getBlobs())
+				blob.setId(nextBlobId++);
 			return;
+		}
 
-		Event event = new Event();
-		// MOVE: neighboring or intersect with only one blob of the same size
+		correspondence.match(fromSnapshot, toSnapshot);
+		toSnapshot.setBlobEvents(trackBlobs(fromSnapshot, toSnapshot));
+	}
+
+	/* Carry the blob ids over from fromSnapshot to toSnapshot and list what
+	   happened to each blob. correspondence must hold the match between the
+	   two snapshots. */
+	private List<BlobEvent> trackBlobs(Snapshot fromSnapshot, Snapshot toSnapshot) {
+		List<BlobEvent> events = new ArrayList<BlobEvent>();
+		long elapsed = toSnapshot.getLatestSampleTimestamp() - fromSnapshot.getLatestSampleTimestamp();
+		Blob[] predecessors = new Blob[toSnapshot.size() + 1];
+		boolean[] claimed = new boolean[fromSnapshot.size() + 1];
+
+		// blobs that overlap each other the most keep their id
 		for(Blob toBlob: toSnapshot.getBlobs()) {
-			for(Blob fromBlob: fromSnapshot.getBlobs()) {
-				if(toBlob.size() == fromBlob.size() && (toBlob.isNeighboring(fromBlob) || toBlob.isIntersected(fromBlob))) {
-					Point2D from = fromBlob.getCenter();
-					Point2D to = toBlob.getCenter();
-					//System.out.println("from(" + from.getX() + ", " + from.getY() + "), to(" + to.getX() + ", " + to.getY() + ")");
-					double dirX = roundTwoDecimals(to.getX() - from.getX());
-					double dirY = roundTwoDecimals (to.getY() - from.getY());
-					if(dirX>0) {
-						if(dirY>0)
-							event.setMOVE(Event.Direction.NE);
-						else if(dirY<0)
-							event.setMOVE(Event.Direction.SE);
-						else
-							event.setMOVE(Event.Direction.EAST);
-					}	else if(dirX<0) {
-						if(dirY>0)
-							event.setMOVE(Event.Direction.NW);
-						else if(dirY<0)
-							event.setMOVE(Event.Direction.SW);
-						else
-							event.setMOVE(Event.Direction.WEST);
-					}	else {
-						if(dirY>0)
-							event.setMOVE(Event.Direction.NORTH);
-						else if(dirY<0)
-							event.setMOVE(Event.Direction.SOUTH);
-					}
+			int fromLabel = correspondence.getBestMatch(toBlob.getLabel());
+			if(fromLabel != 0 && correspondence.getBestSuccessor(fromLabel) == toBlob.getLabel()) {
+				predecessors[toBlob.getLabel()] = fromSnapshot.getBlob(fromLabel);
+				claimed[fromLabel] = true;
+			}
+		}
+		// so do small blobs that just slid next to where they were
+		for(int e = 0; e < correspondence.size(); e++) {
+			int fromLabel = correspondence.getFromLabel(e);
+			int toLabel = correspondence.getToLabel(e);
+			Blob fromBlob = fromSnapshot.getBlob(fromLabel);
+			Blob toBlob = toSnapshot.getBlob(toLabel);
+			if(correspondence.getOverlap(e) == 0 && !claimed[fromLabel] && predecessors[toLabel] == null
+					&& correspondence.getOverlapCount(fromLabel) == 0 && correspondence.getBestMatch(toLabel) == 0
+					&& fromBlob.size() == toBlob.size()) {
+				predecessors[toLabel] = fromBlob;
+				claimed[fromLabel] = true;
+			}
+		}
+
+		for(Blob toBlob: toSnapshot.getBlobs()) {
+			Blob fromBlob = predecessors[toBlob.getLabel()];
+			toBlob.setId(fromBlob != null ? fromBlob.getId() : nextBlobId++);
+		}
+
+		// MERGE and SPLIT: a blob overlapping several blobs of the other snapshot
+		Map<Blob, BlobEvent> merges = new HashMap<Blob, BlobEvent>();
+		Map<Blob, BlobEvent> splits = new HashMap<Blob, BlobEvent>();
+		for(int e = 0; e < correspondence.size(); e++) {
+			if(correspondence.getOverlap(e) == 0)
+				continue;
+
+			Blob fromBlob = fromSnapshot.getBlob(correspondence.getFromLabel(e));
+			Blob toBlob = toSnapshot.getBlob(correspondence.getToLabel(e));
+			if(correspondence.getPredecessorCount(toBlob.getLabel()) > 1) {
+				BlobEvent merge = merges.get(toBlob);
+				if(merge == null) {
+					merge = newBlobEvent(BlobEvent.Type.MERGE, toBlob, predecessors[toBlob.getLabel()], elapsed);
+					merges.put(toBlob, merge);
+					events.add(merge);
+				}
+				if(fromBlob.getId() != toBlob.getId())
+					merge.addRelatedId(fromBlob.getId());
+			}
+			if(correspondence.getOverlapCount(fromBlob.getLabel()) > 1) {
+				BlobEvent split = splits.get(fromBlob);
+				if(split == null) {
+					split = new BlobEvent(BlobEvent.Type.SPLIT, fromBlob.getId());
+					splits.put(fromBlob, split);
+					events.add(split);
 				}
+				if(fromBlob.getId() != toBlob.getId())
+					split.addRelatedId(toBlob.getId());
 			}
 		}
 
-		// MERGE: intersect with two or more, last --> prev
+		// FORM, MOVE, EXPAND, SHRINK
 		for(Blob toBlob: toSnapshot.getBlobs()) {
-			int intersections = 0;
-			for(Blob fromBlob: fromSnapshot.getBlobs()) {
-				if(toBlob.isIntersected(fromBlob))
-					intersections++;
+			Blob fromBlob = predecessors[toBlob.getLabel()];
+			if(merges.containsKey(toBlob))
+				continue;
+
+			if(fromBlob == null) {
+				if(correspondence.getBestMatch(toBlob.getLabel()) == 0)
+					events.add(newBlobEvent(BlobEvent.Type.FORM, toBlob, null, elapsed));
+				continue;
 			}
 
-			if(intersections > 1) {
-				event.setMERGE();
-				break;
+			BlobEvent event = newBlobEvent(BlobEvent.Type.MOVE, toBlob, fromBlob, elapsed);
+			if(event.fDx == 0 && event.fDy == 0) {
+				if(event.fAreaDelta == 0)
+					continue;
+				event.fType = event.fAreaDelta > 0 ? BlobEvent.Type.EXPAND : BlobEvent.Type.SHRINK;
 			}
+			events.add(event);
 		}
 
-		// SPLIT: intersect with two or more, prev --> last
+		// VANISH: a blob that overlapped nothing and nothing took over
 		for(Blob fromBlob: fromSnapshot.getBlobs()) {
-			int intersections = 0;
-			for(Blob toBlob: toSnapshot.getBlobs()) {
-				if(fromBlob.isIntersected(toBlob))
-					intersections++;
+			if(!claimed[fromBlob.getLabel()] && correspondence.getOverlapCount(fromBlob.getLabel()) == 0) {
+				BlobEvent event = new BlobEvent(BlobEvent.Type.VANISH, fromBlob.getId());
+				event.fAreaDelta = -fromBlob.size();
+				events.add(event);
 			}
+		}
+		return events;
+	}
+
+	/* An event about toBlob, with its motion and growth since fromBlob (if
+	   any) over elapsed milliseconds */
+	private BlobEvent newBlobEvent(BlobEvent.Type type, Blob toBlob, Blob fromBlob, long elapsed) {
+		BlobEvent event = new BlobEvent(type, toBlob.getId());
+		if(fromBlob == null) {
+			event.fAreaDelta = toBlob.size();
+			return event;
+		}
+
+		event.fDx = roundTwoDecimals(toBlob.getCenterX() - fromBlob.getCenterX());
+		event.fDy = roundTwoDecimals(toBlob.getCenterY() - fromBlob.getCenterY());
+		if(elapsed > 0) {
+			event.fVelocityX = event.fDx * 1000.0 / elapsed;
+			event.fVelocityY = event.fDy * 1000.0 / elapsed;
+		}
+		event.fAreaDelta = toBlob.size() - fromBlob.size();
+		return event;
+	}
 
-			if(intersections > 1) {
-				event.setSPLIT();
-				break;
+	/* Also run on its own by TrackingBenchmark */
+	void detect(Snapshot fromSnapshot, Snapshot toSnapshot) {
+		if(fromSnapshot == null || toSnapshot == null)
+			return;
+
+		Event event = new Event();
+		identifyBlobs(fromSnapshot, toSnapshot);
+
+		// MOVE: a blob that kept its size but not its place
+		for(BlobEvent blobEvent: toSnapshot.getBlobEvents()) {
+			if(blobEvent.getType() == BlobEvent.Type.MOVE && blobEvent.fAreaDelta == 0) {
+				double dirX = roundTwoDecimals(blobEvent.fDx);
+				double dirY = roundTwoDecimals(blobEvent.fDy);
+				if(dirX>0) {
+					if(dirY>0)
+						event.setMOVE(Event.Direction.NE);
+					else if(dirY<0)
+						event.setMOVE(Event.Direction.SE);
+					else
+						event.setMOVE(Event.Direction.EAST);
+				}	else if(dirX<0) {
+					if(dirY>0)
+						event.setMOVE(Event.Direction.NW);
+					else if(dirY<0)
+						event.setMOVE(Event.Direction.SW);
+					else
+						event.setMOVE(Event.Direction.WEST);
+				}	else {
+					if(dirY>0)
+						event.setMOVE(Event.Direction.NORTH);
+					else if(dirY<0)
+						event.setMOVE(Event.Direction.SOUTH);
+				}
 			}
 		}
 
+		// MERGE: intersect with two or more, last --> prev
+		if(correspondence.isMerge())
+			event.setMERGE();
+
+		// SPLIT: intersect with two or more, prev --> last
+		if(correspondence.isSplit())
+			event.setSPLIT();
 
 		// EXPAND: total number of bright motes increases
 		// SHRINK: total number of bright motes decreases
@@ -670,12 +941,17 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 	}
 
 	/* The data object has informed us that nodeId is a previously unknown
-	   mote. Update the GUI. */
+	   mote. Update the GUI; the tracker picks up the new layout on its next
+	   pass. */
 	void newNode(int nodeId) {
 		window.newNode(nodeId);
+		if(!fixedGeometry)
+			geometry = null;
 	}
 
-	public synchronized void messageReceived(int dest_addr,	Message msg) {
+	/* Called on the thread of the base station the message came through,
+	   possibly on several at once. Never waits for the tracker or the GUI. */
+	public void messageReceived(int dest_addr,	Message msg) {
 		if (msg instanceof ContourTrackingMsg) {
 			ContourTrackingMsg omsg = (ContourTrackingMsg)msg;
 
@@ -683,7 +959,10 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 			periodUpdate(omsg.get_version(), omsg.get_interval());
 			//System.out.println("mote[" + omsg.get_id() + "] msg seq: " + omsg.get_count() + " with clock: " + omsg.get_clock() + ", local ts: " + omsg.get_ftsp_local_timestamp() + ", global ts: " + omsg.get_ftsp_global_timestamp() + ", root id: " + omsg.get_ftsp_root_id() + ", skew: " + omsg.get_ftsp_skew() + ", synced: " + omsg.get_ftsp_synced() + " at " + System.currentTimeMillis());
 			if(omsg.get_ftsp_synced() > 0) {
-				data.update(omsg.get_id(), omsg.get_count(), omsg.get_readings(), omsg.get_ftsp_global_timestamp(), omsg.get_ftsp_synced() > 0);
+				int id = omsg.get_id();
+				data.update(id, omsg.get_count(), omsg.get_readings(), omsg.get_ftsp_global_timestamp(), omsg.get_ftsp_synced() > 0);
+				/* Have the tracker look at it */
+				scheduler.requestTrack();
 				/* Inform the GUI that new data showed up */
 				window.newData();
 			}
@@ -692,13 +971,20 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 
 	/* A potentially new version and interval has been received from the mote */
 	void periodUpdate(int moteVersion, int moteInterval) {
-		if (moteVersion > version) {
+		boolean newer, older;
+		synchronized (beaconLock) {
+			newer = moteVersion > version;
+			older = moteVersion < version;
+			if (newer) {
+				version = moteVersion;
+				interval = moteInterval;
+			}
+		}
+		if (newer) {
 			/* It's new. Update our vision of the interval. */
-			version = moteVersion;
-			interval = moteInterval;
 			window.updateSamplePeriod();
 		}
-		else if (moteVersion < version) {
+		else if (older) {
 			/* It's old. Update the mote's vision of the interval. */
 			sendBeacon();
 		}
@@ -707,25 +993,30 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 	/* The user wants to set the interval to newPeriod. Refuse bogus values
 	   and return false, or accept the change, broadcast it, and return
 	   true */
-	synchronized boolean setInterval(int newPeriod) {
+	boolean setInterval(int newPeriod) {
 		if (newPeriod < 1 || newPeriod > 65535) {
 			return false;
 		}
-		interval = newPeriod;
-		version++;
+		synchronized (beaconLock) {
+			interval = newPeriod;
+			version++;
+		}
 		sendBeacon();
 		return true;
 	}
 
 	/* The user wants to set the threshold to newThreshold. Refuse bogus values
 	   and return false, or accept the change, broadcast it, and return
-	   true */
-	synchronized boolean setThreshold(int newThreshold) {
+	   true. The tracker applies it to the grid on its next pass. */
+	boolean setThreshold(int newThreshold) {
 		if (newThreshold < 1 || newThreshold > 1000) {
 			return false;
 		}
-		threshold = newThreshold;
-		version++;
+		synchronized (beaconLock) {
+			threshold = newThreshold;
+			version++;
+		}
+		scheduler.requestTrack();
 		sendBeacon();
 		return true;
 	}
@@ -737,25 +1028,74 @@ public class ContourTracking extends TimerTask implements MessageListener, Seria
 	/* Broadcast a version+interval message. */
 	void sendBeacon() {
 		ContourTrackingMsg omsg = new ContourTrackingMsg();
-		omsg.set_version(version);
-		omsg.set_interval(interval);
-		omsg.set_threshold(threshold);
-		omsg.set_clock(System.currentTimeMillis());
-		try {
-			mote.send(MoteIF.TOS_BCAST_ADDR, omsg);
+		synchronized (beaconLock) {
+			omsg.set_version(version);
+			omsg.set_interval(interval);
+			omsg.set_threshold(threshold);
 		}
-		catch (IOException e) {
-			window.error("Cannot send message to mote");
+		omsg.set_clock(System.currentTimeMillis());
+		/* Through every base station, to reach all of the grid */
+		for (MoteIF mote : motes) {
+			try {
+				mote.send(MoteIF.TOS_BCAST_ADDR, omsg);
+			}
+			catch (IOException e) {
+				window.error("Cannot send message to mote");
+			}
 		}
 	}
 
 	/* User wants to clear all data. */
-	void clear() {
-		data = new Data(this);
+	synchronized void clear() {
+		data = new Data(this, sampleStore);
+		grid = null;
+		aligner.reset();
+		if(!fixedGeometry)
+			geometry = null;
 	}
 
 	public static void main(String[] args) {
 		ContourTracking me = new ContourTracking();
+		boolean record = false;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-layout") && i + 1 < args.length) {
+				try {
+					me.geometry = GridGeometry.load(args[++i]);
+					me.fixedGeometry = true;
+				} catch(IOException e) {
+					System.err.println(e.getMessage());
+					System.exit(1);
+				}
+			} else if(args[i].equals("-store") && i + 1 < args.length) {
+				try {
+					me.sampleStore = new MappedSampleStore(new File(args[++i]));
+				} catch(IOException e) {
+					System.err.println("Cannot create sample store: " + e.getMessage());
+					System.exit(1);
+				}
+			} else if(args[i].equals("-comm") && i + 1 < args.length) {
+				me.sources.add(args[++i]);
+			} else if(args[i].equals("-headless")) {
+				me.headless = true;
+			} else if(args[i].equals("-record")) {
+				record = true;
+			} else if(args[i].equals("-trace") && i + 1 < args.length && Trace.configure(args[i + 1])) {
+				i++;
+			} else {
+				System.err.println("usage: ContourTracking [-comm <source>]... [-layout <file>] [-store <directory>] [-headless] [-record]\n"
+					+ "         [-trace off|debug|verbose[/<sampling>]]");
+				System.exit(2);
+			}
+		}
 		me.exec();
+		if(record && me.startRecording()) {
+			/* Finish the recording, index included, on exit */
+			final ContourTracking tracker = me;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					tracker.stopRecording();
+				}
+			});
+		}
 	}
 }
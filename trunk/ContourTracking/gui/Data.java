@@ -10,93 +10,225 @@
 
 import java.util.*;
 
-/* Hold all data received from motes */
+/* Hold all data received from motes. update may be called from several
+	 threads at once (one per base station); everything else may be called
+	 from any thread and does not lock (see SampleHistory). Each mote's
+	 samples are kept by a Node on the heap, or in store if there is one. */
 class Data {
 	/* The mote data is stored in a flat array indexed by a mote's identifier.
-		 A null value indicates no mote with that identifier. */
-	private Node[] nodes = new Node[16];
+		 A null value indicates no mote with that identifier. The array is
+		 never modified once published: a new node gets a new array. */
+	private volatile SampleHistory[] nodes = new SampleHistory[16];
+	/* The identifiers of the known motes, in the order they were first heard
+		 from. Replaced, after nodes, when a mote is added. */
+	private volatile int[] nodeIds = new int[0];
+
+	/* Aggregates over all motes, kept up to date by update, and the motes
+		 they came from. Only when that mote's value goes down (it rebooted)
+		 do we need to look at the other motes again. Updated under the Data
+		 monitor, which is also held while adding a mote; a message that
+		 changes neither (the usual case) does not take it. */
+	private volatile int maxX = 0;
+	private volatile long lastSamplingTimestamp = -1;
+	private volatile int maxXNode = -1, lastSamplingTimestampNode = -1;
+	/* Set while the motes are looked at again. A mote's update is stored
+		 before update reads this, so a look that update does not see
+		 starting also sees that mote's new values. */
+	private volatile boolean rescanning;
 	private ContourTracking parent;
+	private MappedSampleStore store;
 
-	Data(ContourTracking parent) {
+	Data(ContourTracking parent, MappedSampleStore store) {
 		this.parent = parent;
+		this.store = store;
 	}
 
 	/* Data received from mote nodeId containing NREADINGS samples from
-		 messageId * NREADINGS onwards. Tell parent if this is a new node. */
+		 messageId * NREADINGS onwards. Tell parent if this is a new node.
+		 Updates of one mote are serialized on its SampleHistory, and a
+		 message heard by several base stations is only stored once. */
 	void update(int nodeId, int messageId, int readings[], long timestamp, boolean sync) {
-		if (nodeId >= nodes.length) {
-			int newLength = nodes.length * 2;
-			if (nodeId >= newLength) {
-				newLength = nodeId + 1;
+		SampleHistory node = getNode(nodeId);
+		if (node == null) {
+			boolean added = false;
+			synchronized (this) {
+				node = getNode(nodeId);
+				if (node == null) {
+					node = addNode(nodeId);
+					added = true;
+				}
+			}
+			if (added) {
+				parent.newNode(nodeId);
+			}
+		}
+
+		int nmax;
+		long ts;
+		synchronized (node) {
+			if (node.isDuplicate(messageId, timestamp)) {
+				return;
 			}
+			// record sampling timestamp - Farley
+			node.update(messageId, readings, timestamp, sync);
+			nmax = node.maxX();
+			ts = node.getLastSamplingTimestamp();
+		}
 
-			Node newNodes[] = new Node[newLength];
-			System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
-			nodes = newNodes;
+		/* Leave the aggregates alone unless this mote is now ahead, or was
+			 ahead and went back. rescanning must be read first. */
+		if (!rescanning) {
+			int max = maxX;
+			long last = lastSamplingTimestamp;
+			if ((nmax == max || nmax < max && nodeId != maxXNode)
+					&& (ts == last || ts < last && nodeId != lastSamplingTimestampNode)) {
+				return;
+			}
 		}
-		Node node = nodes[nodeId];
-		if (node == null) {
-			nodes[nodeId] = node = new Node(nodeId);
-			parent.newNode(nodeId);
+		synchronized (this) {
+			if (nmax >= maxX) {
+				maxX = nmax;
+				maxXNode = nodeId;
+			} else if (nodeId == maxXNode) {
+				updateMaxX();
+			}
+			if (ts >= lastSamplingTimestamp) {
+				lastSamplingTimestamp = ts;
+				lastSamplingTimestampNode = nodeId;
+			} else if (nodeId == lastSamplingTimestampNode) {
+				updateLastSamplingTimestamp();
+			}
+		}
+	}
+
+	private SampleHistory addNode(int nodeId) {
+		SampleHistory[] nodes = this.nodes;
+		int newLength = nodes.length;
+		if (nodeId >= newLength) {
+			newLength = Math.max(nodes.length * 2, nodeId + 1);
+		}
+
+		SampleHistory newNodes[] = new SampleHistory[newLength];
+		System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+		SampleHistory node = store != null ? store.newHistory(nodeId) : new Node(nodeId);
+		newNodes[nodeId] = node;
+		this.nodes = newNodes;
+		int[] newIds = new int[nodeIds.length + 1];
+		System.arraycopy(nodeIds, 0, newIds, 0, nodeIds.length);
+		newIds[nodeIds.length] = nodeId;
+		nodeIds = newIds;
+		return node;
+	}
+
+	private void updateMaxX() {
+		rescanning = true;
+		int max = 0, maxNode = -1;
+		for (int id : nodeIds) {
+			int nmax = nodes[id].maxX();
+			if (nmax > max) {
+				max = nmax;
+				maxNode = id;
+			}
+		}
+		maxX = max;
+		maxXNode = maxNode;
+		rescanning = false;
+	}
+
+	private void updateLastSamplingTimestamp() {
+		rescanning = true;
+		long timestamp = -1;
+		int timestampNode = -1;
+		for (int id : nodeIds) {
+			long ts = nodes[id].getLastSamplingTimestamp();
+			if (ts > timestamp) {
+				timestamp = ts;
+				timestampNode = id;
+			}
 		}
-		// record sampling timestamp - Farley
-		node.update(messageId, readings, timestamp, sync);
+		lastSamplingTimestamp = timestamp;
+		lastSamplingTimestampNode = timestampNode;
+		rescanning = false;
+	}
+
+	/* Return the identifiers of the known motes, in the order they were first
+		 heard from. The array must not be modified. */
+	int[] getNodeIds() {
+		return nodeIds;
+	}
+
+	private SampleHistory getNode(int nodeId) {
+		SampleHistory[] nodes = this.nodes;
+		if (nodeId < 0 || nodeId >= nodes.length)
+			return null;
+		return nodes[nodeId];
 	}
 
 	/* Return value of sample x for mote nodeId, or -1 for missing data */
 	int getData(int nodeId, int x) {
-		if (nodeId >= nodes.length || nodes[nodeId] == null)
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
 			return -1;
-		return nodes[nodeId].getData(x);
+		return node.getData(x);
+	}
+
+	/* Put the smallest and largest of samples from .. to - 1 of mote nodeId
+		 in range[0] and range[1]. Returns false if it has none of them. */
+	boolean getRange(int nodeId, int from, int to, int[] range) {
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
+			return false;
+		return node.getRange(from, to, range);
 	}
 
+	/* Return the timestamp of sample x for mote nodeId, or -1 if it is not
+		 held */
 	long getDataTimestamp(int nodeId, int x) {
-		if (nodeId >= nodes.length || nodes[nodeId] == null)
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
 			return -1;
-		return nodes[nodeId].getLastSamplingTimestamp() - nodes[nodeId].getDataOffsetToLastSample(x) * parent.interval;
+		return node.getDataTimestamp(x, parent.interval);
+	}
+
+	/* Return the last sample mote nodeId took at or before timestamp, or -1
+		 if there is none */
+	int findData(int nodeId, long timestamp) {
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
+			return -1;
+		return node.findData(timestamp, parent.interval);
 	}
 
 	long getLastSampleTimestamp(int nodeId) {
-		return nodes[nodeId] == null ? -1 : nodes[nodeId].getLastSamplingTimestamp();
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
+			return -1;
+		return node.getLastSamplingTimestamp();
 	}
 
 	long getLastSamplingTimestamp() {
-		long timestamp = -1;
-		for (int i = 0; i < nodes.length; i++) {
-			if (nodes[i] != null) {
-				long ts = nodes[i].getLastSamplingTimestamp();
-				if (ts > timestamp)
-					timestamp = ts;
-			}
-		}
-		return timestamp;
+		return lastSamplingTimestamp;
 	}
 
 	boolean getNodeSync(int nodeId) {
-		if (nodeId >= nodes.length || nodes[nodeId] == null)
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
 			return false;
-		return nodes[nodeId].isSynced();
+		return node.isSynced();
 	}
 
 	/* Return number of last known sample on mote nodeId. Returns 0 for
 		 unknown motes. */
 	int maxX(int nodeId) {
-		if (nodeId >= nodes.length || nodes[nodeId] == null)
+		SampleHistory node = getNode(nodeId);
+		if (node == null)
 			return 0;
-		return nodes[nodeId].maxX();
+		return node.maxX();
 	}
 
 	/* Return number of largest known sample on all motes (0 if there are no
 		 motes) */
 	int maxX() {
-		int max = 0;
-		for (int i = 0; i < nodes.length; i++) {
-			if (nodes[i] != null) {
-				int nmax = nodes[i].maxX();
-				if (nmax > max)
-					max = nmax;
-			}
-		}
-		return max;
+		return maxX;
 	}
 }
@@ -0,0 +1,93 @@
+/* Builds the tracking grid once per sampling epoch from the motes' FTSP
+   timestamped samples, rather than from whatever sample each mote sent
+   last.
+
+   Epochs are the multiples of the sampling period. An epoch is ready once
+   the watermark, LATENESS periods behind the latest timestamp heard from any
+   mote, has passed it: a message carries NREADINGS samples, so a mote's
+   samples reach us up to NREADINGS periods after they were taken. Each mote's
+   value at an epoch is interpolated between its samples on either side of
+   it, or held from the sample before it if the one after has not arrived. A
+   mote whose last sample before the epoch is more than STALE periods old,
+   or which has none, is marked stale (sample -1, i.e. below threshold).
+
+   Only used by the tracker, under the ContourTracking monitor. */
+class EpochAligner {
+	static final int LATENESS = 2 * Constants.NREADINGS;
+	static final int STALE = 4 * Constants.NREADINGS;
+	/* Epochs to catch up on at most; after a longer pause the older epochs
+	   are skipped */
+	static final int MAX_BACKLOG = 64;
+
+	/* The next epoch to build, -1 to start at the watermark */
+	private long fNextEpoch = -1;
+	private int fInterval;
+
+	/* Return the next epoch whose samples should all be in, or -1 if there
+	   is none yet. The epoch is consumed. */
+	long nextEpoch(Data data, int interval) {
+		long latest = data.getLastSamplingTimestamp();
+		if(latest < 0 || interval <= 0)
+			return -1;
+
+		long watermark = latest - (long)LATENESS * interval;
+		if(interval != fInterval) {
+			/* Realign on the new period */
+			if(fNextEpoch != -1)
+				fNextEpoch = ceil(fNextEpoch, interval);
+			fInterval = interval;
+		}
+		/* Start, or start over if time went backwards (e.g. the FTSP root
+		   changed) or we fell too far behind */
+		if(fNextEpoch == -1 || fNextEpoch - watermark > (long)MAX_BACKLOG * interval)
+			fNextEpoch = floor(watermark, interval);
+		else if(watermark - fNextEpoch >= (long)MAX_BACKLOG * interval)
+			fNextEpoch = floor(watermark, interval) - (long)(MAX_BACKLOG - 1) * interval;
+
+		if(fNextEpoch > watermark)
+			return -1;
+		long epoch = fNextEpoch;
+		fNextEpoch += interval;
+		return epoch;
+	}
+
+	/* Forget the epochs built so far, e.g. when the data was cleared */
+	void reset() {
+		fNextEpoch = -1;
+	}
+
+	/* Set every mote on grid to its value at epoch */
+	void fill(ThresholdGrid grid, Data data, long epoch, int interval) {
+		GridGeometry geometry = grid.getGeometry();
+		for(int idx = 0; idx < geometry.size(); idx++) {
+			int id = geometry.getMoteId(idx);
+			if(id == -1)
+				continue;
+
+			int x = data.findData(id, epoch);
+			int sample = x == -1 ? -1 : data.getData(id, x);
+			long timestamp = x == -1 ? -1 : data.getDataTimestamp(id, x);
+			if(sample == -1 || epoch - timestamp > (long)STALE * interval) {
+				grid.update(id, -1, timestamp);
+				continue;
+			}
+
+			if(timestamp < epoch) {
+				int next = data.getData(id, x + 1);
+				long nextTimestamp = data.getDataTimestamp(id, x + 1);
+				if(next != -1 && nextTimestamp > epoch)
+					sample += (int)((long)(next - sample) * (epoch - timestamp) / (nextTimestamp - timestamp));
+			}
+			grid.update(id, sample, epoch);
+		}
+	}
+
+	private static long floor(long timestamp, int interval) {
+		return timestamp - ((timestamp % interval) + interval) % interval;
+	}
+
+	private static long ceil(long timestamp, int interval) {
+		long floor = floor(timestamp, interval);
+		return floor == timestamp ? floor : floor + interval;
+	}
+}
@@ -33,48 +33,6 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 			fPlayer = player;
 		}
 
-		void addControlPoints(ContourTracking.Blob blob, int row, int col, ContourSpline spline) {
-			ContourTracking.Snapshot snapshot = fPlayer.getPlayingSnapshot();
-			if(snapshot == null || spline == null)
-				return;
-
-			int DIM = snapshot.getGridDimension();
-			int idx = row * DIM +  col;
-			int id = snapshot.getMoteId(idx);
-
-			int marginX = getWidth() / 5;
-			int marginY = getHeight() / 100 * 20;
-			int gridX = marginX;
-			int gridY = marginY;
-			int gridWidth = getWidth() - 2 * marginX;
-			int gridHeight = getHeight() - 2 * marginY;
-			int offsetX = gridWidth / (DIM - 1);
-			int offsetY = gridHeight / (DIM - 1);
-			int moteX = gridX + col * offsetX;
-			int moteY = gridY + gridHeight - row * offsetY;
-
-			int nbrL = snapshot.getMoteNeighborId(id, ContourTracking.Position.L);
-			int nbrR = snapshot.getMoteNeighborId(id, ContourTracking.Position.R);
-			int nbrU = snapshot.getMoteNeighborId(id, ContourTracking.Position.U);
-			int nbrB = snapshot.getMoteNeighborId(id, ContourTracking.Position.B);
-			if(nbrL < 0 || !blob.contains(nbrL)) {
-				spline.addPoint(moteX - offsetX / 4, moteY);
-			}
-
-			if(nbrR < 0 || !blob.contains(nbrR)) {
-				spline.addPoint(moteX + offsetX / 4, moteY);
-			} 
-			
-			if(nbrU < 0 || !blob.contains(nbrU)) {
-				spline.addPoint(moteX, moteY - offsetY / 3);
-			}
-			
-			if(nbrB < 0 || !blob.contains(nbrB)) {
-				spline.addPoint(moteX, moteY + offsetY / 3);
-			}
-			
-		}
-
 		protected void paintComponent(Graphics g) {
 			ContourTracking.Snapshot snapshot = fPlayer.getPlayingSnapshot();
 			if(snapshot == null)
@@ -84,7 +42,8 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 		}
 	}
 
-	Vector<ContourTracking.Snapshot> fSnapshots;
+	RecordingFile fRecording;
+	int fPlayingFrame = -1;
 	ContourTracking.Snapshot fPlayingSnapshot;
 	Timer fTimer;
 	boolean fSliderChangeEnabled;
@@ -97,7 +56,6 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 	Bulletin fBulletin;
 
 	EventContourTrackingPlayer() {
-		fSnapshots = new Vector<ContourTracking.Snapshot>();
 		fSliderChangeEnabled = true;
 		setupUI();
 	}
@@ -106,51 +64,46 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 		fBulletin.setText(text);
 	}
 
+	boolean isEmpty() {
+		return fRecording == null || fRecording.getFrameCount() == 0;
+	}
+
+	int getLastFrame() {
+		return fRecording.getFrameCount() - 1;
+	}
+
 	double getDuration() {
-		return (fSnapshots.lastElement().getLatestSampleTimestamp() - fSnapshots.firstElement().getLatestSampleTimestamp()) / 1000.0;
+		return (fRecording.getTimestamp(getLastFrame()) - fRecording.getTimestamp(0)) / 1000.0;
 	}
 
 	boolean load(File file) {
 		return load(file.getPath());
 	}
 
+	/* Open a recording. Only its frame index is read, frames are decoded as
+	   they are played. */
 	boolean load(String filename) {
-		ObjectInputStream in = null;
+		RecordingFile recording;
 		try {
-			in = new ObjectInputStream(new FileInputStream(filename));
+			recording = new RecordingFile(filename);
 		} catch(IOException e) {
-			e.printStackTrace();
+			System.err.println(filename + ": " + e.getMessage());
 			return false;
 		}
 
 		stop();
-		ContourTracking.Snapshot snapshot = null;
-		fPlayingSnapshot = null;
-		fSnapshots.clear();
-		boolean ret = false;
-		try {
-			while((snapshot = (ContourTracking.Snapshot)in.readObject()) != null)
-				fSnapshots.add(snapshot);
-		} catch(ClassNotFoundException e) {
-			e.printStackTrace();
-			ret = false;
-		} catch(EOFException e) {
-			ret = true;
-		} catch(IOException e) {
-			e.printStackTrace();
-			ret = false;
-		} finally {
+		if(fRecording != null) {
 			try {
-				in.close();
+				fRecording.close();
 			} catch(IOException e) {
 				e.printStackTrace();
 			}
 		}
+		fRecording = recording;
+		if(isEmpty())
+			return true;
 
-		if(fSnapshots.isEmpty())
-			return ret;
-
-		double duration = (fSnapshots.lastElement().getLatestSampleTimestamp() - fSnapshots.firstElement().getLatestSampleTimestamp()) / 1000.0;
+		double duration = getDuration();
 		fPlaybackSlider.setMajorTickSpacing(3);
 		fPlaybackSlider.setMinorTickSpacing(1);
 		fPlaybackSlider.setPaintTicks(true);
@@ -158,14 +111,20 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 		fPlaybackSlider.setValue(0);
 		fPlaybackSlider.setMinimum(0);
 		fPlaybackSlider.setMaximum(duration > (int)duration ? (int)duration + 1 : (int) duration);
-		System.out.println("Number of snapshots: " + fSnapshots.size());
+		System.out.println("Number of snapshots: " + fRecording.getFrameCount());
 		System.out.println("Event Contour Video duration: " + duration + " seconds");
-		return ret;
+		return true;
 	}
 
 	void dump() {
-		for(ContourTracking.Snapshot snapshot: fSnapshots)
-			snapshot.debug();
+		for(int frame = 0; frame <= getLastFrame(); frame++) {
+			try {
+				fRecording.getSnapshot(frame).debug();
+			} catch(IOException e) {
+				System.err.println(e.getMessage());
+				return;
+			}
+		}
 	}
 
 	void setupUI() {
@@ -202,14 +161,12 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 		return fPlayingSnapshot;
 	}
 
-	ContourTracking.Snapshot getNextPlayingSnapshot() {
-		if(fSnapshots.isEmpty() || fPlayingSnapshot == fSnapshots.lastElement())
-			return null;
+	/* Frame after the playing one, -1 at the end */
+	int getNextPlayingFrame() {
+		if(isEmpty() || fPlayingFrame == getLastFrame())
+			return -1;
 
-		if(fPlayingSnapshot == null)
-				return fSnapshots.firstElement();
-
-		return fSnapshots.get((fSnapshots.indexOf(fPlayingSnapshot) + 1));
+		return fPlayingFrame + 1;
 	}
 
 	void setSlierChangeEnabled(boolean enabled) {
@@ -217,21 +174,30 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 	}
 
 	private boolean scheduleNextFrame() {
-		fPlayingSnapshot = getNextPlayingSnapshot();
-		ContourTracking.Snapshot nextPlayingSnapshot = getNextPlayingSnapshot();
-		if(fPlayingSnapshot == null) 
+		int frame = getNextPlayingFrame();
+		if(frame == -1)
+			return false;
+
+		try {
+			fPlayingSnapshot = fRecording.getSnapshot(frame);
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			fBulletin.setText("ERROR: " + e.getMessage());
 			return false;
+		}
+		fPlayingFrame = frame;
+		int nextFrame = getNextPlayingFrame();
 
-		long t1 = fSnapshots.firstElement().getLatestSampleTimestamp();
-		long t2 = fPlayingSnapshot.getLatestSampleTimestamp();
+		long t1 = fRecording.getTimestamp(0);
+		long t2 = fRecording.getTimestamp(frame);
 		double time = (t2 - t1) / 1000.0;
 		setSlierChangeEnabled(false);
 		fPlaybackSlider.setValue((int)time);
-		if(nextPlayingSnapshot == null) {
+		if(nextFrame == -1) {
 			fPlaybackSlider.setValue(fPlaybackSlider.getMaximum());
 		} else {
 			fTimer = new Timer();
-			fTimer.schedule(new PlayerTask(this), nextPlayingSnapshot.getLatestSampleTimestamp() - fPlayingSnapshot.getLatestSampleTimestamp());
+			fTimer.schedule(new PlayerTask(this), Math.max(0, fRecording.getTimestamp(nextFrame) - t2));
 		}
 
 		setSlierChangeEnabled(true);
@@ -245,28 +211,30 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 	}
 
 	void stop() {
+		fPlayingFrame = -1;
 		fPlayingSnapshot = null;
 		if(fTimer != null)
 			fTimer.cancel();
 	}
 
-	ContourTracking.Snapshot seek(int sec) {
-		if(fSnapshots.isEmpty())
-			return null;
+	/* Position playback so that play() resumes at sec seconds into the
+	   recording. Returns the frame playback resumes after, -1 if it starts
+	   from the beginning. */
+	int seek(int sec) {
+		if(isEmpty())
+			return -1;
 
 		if(sec < 0)
 			sec = 0;
 
-		long pos = fSnapshots.firstElement().getLatestSampleTimestamp() + sec * 1000;
-		for(int i = 0; i < fSnapshots.size() - 1; i++) {
-			if(pos >= fSnapshots.get(i).getLatestSampleTimestamp() && pos < fSnapshots.get(i+1).getLatestSampleTimestamp())
-				fPlayingSnapshot = (i - 1) < 0 ? null : fSnapshots.get(i-1);
-		}
-
-		if(pos >= fSnapshots.lastElement().getLatestSampleTimestamp())
-			fPlayingSnapshot = fSnapshots.get(fSnapshots.size()-1);
-
-		return fPlayingSnapshot;
+		long pos = fRecording.getTimestamp(0) + sec * 1000L;
+		int frame = fRecording.findFrame(pos);
+		if(frame == getLastFrame())
+			fPlayingFrame = frame;
+		else
+			fPlayingFrame = Math.max(-1, frame - 1);
+		fPlayingSnapshot = null;
+		return fPlayingFrame;
 	}
 
 	public void actionPerformed(ActionEvent e) {
@@ -275,7 +243,7 @@ public class EventContourTrackingPlayer implements ActionListener, ChangeListene
 		fc.addChoosableFileFilter(new FileNameExtensionFilter("Event Contour Tracking file", "ect", "ect"));
 		if(fc.showOpenDialog(fFrame) == JFileChooser.APPROVE_OPTION) {
 			File ect = fc.getSelectedFile();
-			if(load(ect) && !fSnapshots.isEmpty()) {
+			if(load(ect) && !isEmpty()) {
 				play();
 			} else {
 				JOptionPane.showMessageDialog(fFrame, "ERROR: fail to load or there is nothing to play in " + ect.getName());
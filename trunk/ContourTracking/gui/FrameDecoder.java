@@ -0,0 +1,159 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/* Decodes the frames of a recording (see RecordingFormat). Frames other than
+   keyframes are delta-encoded, so the decoder keeps the state of the last
+   frame it went through. Blobs are rebuilt from each frame's bitmask with a
+   BlobLabeller. */
+class FrameDecoder {
+	private BlobLabeller fLabeller = new BlobLabeller();
+	private int fKeyframeInterval;
+
+	/* The previous frame, which the next one is delta-encoded against */
+	private GridGeometry fGeometry;
+	private int fThreshold;
+	private int[] fSamples;
+	private long[] fTimestamps;
+	private boolean fDecoded;
+
+	/* A decoder for the recording with this header payload */
+	FrameDecoder(ByteBuffer header) throws IOException {
+		try {
+			fKeyframeInterval = RecordingFormat.readInt(header);
+			fThreshold = RecordingFormat.readInt(header);
+			setGeometry(RecordingFormat.readGeometry(header));
+		} catch(java.nio.BufferUnderflowException e) {
+			throw new IOException("Corrupt recording: header too short");
+		}
+	}
+
+	int getKeyframeInterval() {
+		return fKeyframeInterval;
+	}
+
+	private void setGeometry(GridGeometry geometry) {
+		if(fGeometry == null || fGeometry.size() != geometry.size()) {
+			fSamples = new int[geometry.size()];
+			fTimestamps = new long[geometry.size()];
+		}
+		fGeometry = geometry;
+	}
+
+	/* Decode a frame payload. Delta-encoded values are taken from the
+	   previously decoded (or skipped) frame. */
+	ContourTracking.Snapshot decode(ByteBuffer in) throws IOException {
+		try {
+			int flags = readState(in);
+			int size = fGeometry.size();
+			long[] mask = new long[(size + 63) / 64];
+			int bits = 0, count = 8;
+			for(int idx = 0; idx < size; idx++) {
+				if(fGeometry.getMoteId(idx) == -1)
+					continue;
+
+				if(count == 8) {
+					bits = in.get();
+					count = 0;
+				}
+				if((bits & (1 << count++)) != 0)
+					mask[idx >>> 6] |= 1L << idx;
+			}
+
+			int blobs = fLabeller.label(mask, fGeometry.getWidth(), fGeometry.getHeight());
+			int[] labels = new int[size];
+			for(int idx = 0; idx < size; idx++)
+				labels[idx] = fLabeller.getLabel(idx);
+			ContourTracking.Snapshot snapshot = new ContourTracking.Snapshot(fGeometry, fThreshold,
+					fSamples.clone(), fTimestamps.clone(), mask, labels);
+			if(RecordingFormat.readInt(in) != blobs)
+				throw new IOException("Corrupt recording: blob count mismatch");
+			for(int label = 1; label <= blobs; label++)
+				snapshot.getBlob(label).setId(RecordingFormat.readInt(in));
+
+			if((flags & RecordingFormat.EVENT) != 0)
+				snapshot.setEvent(readEvent(in));
+			int events = RecordingFormat.readInt(in);
+			for(int i = 0; i < events; i++)
+				snapshot.getBlobEvents().add(readBlobEvent(in));
+			return snapshot;
+		} catch(java.nio.BufferUnderflowException e) {
+			throw new IOException("Corrupt recording: frame too short");
+		} catch(IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt recording: invalid value");
+		}
+	}
+
+	/* Go through a frame payload without building its snapshot, only
+	   keeping what the next frame is delta-encoded against */
+	void skip(ByteBuffer in) throws IOException {
+		try {
+			readState(in);
+		} catch(java.nio.BufferUnderflowException e) {
+			throw new IOException("Corrupt recording: frame too short");
+		}
+	}
+
+	/* Read the frame flags, threshold, geometry, samples and timestamps.
+	   Returns the flags. */
+	private int readState(ByteBuffer in) throws IOException {
+		int flags = in.get();
+		long timestamp = in.getLong();
+		boolean keyframe = (flags & RecordingFormat.KEYFRAME) != 0;
+		if(!keyframe && !fDecoded)
+			throw new IOException("Corrupt recording: no keyframe to decode from");
+		if((flags & RecordingFormat.THRESHOLD) != 0)
+			fThreshold = RecordingFormat.readInt(in);
+		if((flags & RecordingFormat.GEOMETRY) != 0)
+			setGeometry(RecordingFormat.readGeometry(in));
+
+		int size = fGeometry.size();
+		for(int idx = 0; idx < size; idx++) {
+			if(fGeometry.getMoteId(idx) == -1)
+				fSamples[idx] = -1;
+			else
+				fSamples[idx] = (int)(RecordingFormat.readSignedVarint(in) + (keyframe ? 0 : fSamples[idx]));
+		}
+		for(int idx = 0; idx < size; idx++) {
+			if(fGeometry.getMoteId(idx) == -1)
+				fTimestamps[idx] = -1;
+			else
+				fTimestamps[idx] = RecordingFormat.readSignedVarint(in) + (keyframe ? timestamp : fTimestamps[idx]);
+		}
+		fDecoded = true;
+		return flags;
+	}
+
+	private ContourTracking.Event readEvent(ByteBuffer in) {
+		ContourTracking.Event event = new ContourTracking.Event();
+		int flags = in.get();
+		if((flags & RecordingFormat.FORM) != 0)
+			event.setFORM();
+		if((flags & RecordingFormat.VANISH) != 0)
+			event.setVANISH();
+		if((flags & RecordingFormat.MERGE) != 0)
+			event.setMERGE();
+		if((flags & RecordingFormat.SPLIT) != 0)
+			event.setSPLIT();
+		if((flags & RecordingFormat.EXPAND) != 0)
+			event.setEXPAND();
+		if((flags & RecordingFormat.SHRINK) != 0)
+			event.setSHRINK();
+		if((flags & RecordingFormat.MOVE) != 0)
+			event.setMOVE(ContourTracking.Event.Direction.values()[in.get()]);
+		return event;
+	}
+
+	private ContourTracking.BlobEvent readBlobEvent(ByteBuffer in) throws IOException {
+		ContourTracking.BlobEvent.Type type = ContourTracking.BlobEvent.Type.values()[in.get()];
+		ContourTracking.BlobEvent event = new ContourTracking.BlobEvent(type, RecordingFormat.readInt(in));
+		int related = RecordingFormat.readInt(in);
+		for(int i = 0; i < related; i++)
+			event.addRelatedId(RecordingFormat.readInt(in));
+		event.fDx = in.getFloat();
+		event.fDy = in.getFloat();
+		event.fVelocityX = in.getFloat();
+		event.fVelocityY = in.getFloat();
+		event.fAreaDelta = (int)RecordingFormat.readSignedVarint(in);
+		return event;
+	}
+}
@@ -82,20 +82,20 @@ class Graph extends JPanel
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D)g;
 
-		/* Repaint. Synchronize on ContourTracking to avoid data changing.
+		/* Repaint. Mote data is read without locking (see Node), so data
+		   keeps coming in while we draw; the mote list only changes on this
+		   thread (see Window.newNode).
 		   Simply clear panel, draw Y axis and all the mote graphs. */
-		synchronized (parent.parent) {
-			updateConversion();
-			g2d.setColor(Color.BLACK);
-			g2d.fillRect(0, 0, getWidth(), getHeight());
-			drawYAxis(g2d);
-
-			Graphics clipped = makeClip(g2d);
-			int count = parent.moteListModel.size();
-			for (int i = 0; i < count; i++) {
-				clipped.setColor(parent.moteListModel.getColor(i));
-				drawGraph(clipped, parent.moteListModel.get(i));
-			}
+		updateConversion();
+		g2d.setColor(Color.BLACK);
+		g2d.fillRect(0, 0, getWidth(), getHeight());
+		drawYAxis(g2d);
+
+		Graphics clipped = makeClip(g2d);
+		int count = parent.moteListModel.size();
+		for (int i = 0; i < count; i++) {
+			clipped.setColor(parent.moteListModel.getColor(i));
+			drawGraph(clipped, parent.moteListModel.get(i));
 		}
 	}
 
@@ -143,49 +143,86 @@ class Graph extends JPanel
 
 	}
 
-	/* Draw graph for mote nodeId */
+	/* Draw graph for mote nodeId. With more samples than pixels, each
+	   screen column shows the smallest and largest of its samples (see
+	   SampleHistory.getRange), so the work depends on the width of the
+	   panel rather than on the number of samples. The graph is built up as
+	   one path and drawn at once. */
 	protected void drawGraph(Graphics g, int nodeId) {
-		SingleGraph sg = new SingleGraph(g, nodeId);
+		SingleGraph sg = new SingleGraph(nodeId);
 
 		if (gx1 - gx0 >= width) {
 			for (int sx = 0; sx < width; sx++)
-				sg.nextPoint(g, graphX(sx), sx);
+				sg.nextColumn(graphX(sx), graphX(sx + 1), sx);
 		} else {
 			for (int gx = gx0; gx <= gx1; gx++)
-				sg.nextPoint(g, gx, screenX(gx));
+				sg.nextPoint(gx, screenX(gx));
 		}
+		((Graphics2D)g).draw(path);
 	}
 
+	/* The graph being drawn, kept between graphs and repaints (painting is
+	   only done on the event dispatch thread) */
+	private final Path2D.Float path = new Path2D.Float();
+	private final int[] range = new int[2];
+
 	/* Inner class to simplify drawing a graph. Simplify initialise it, then
 	   feed it the X screen and graph coordinates, from left to right. */
 	private class SingleGraph {
-		int lastsx, lastsy, nodeId;
+		int lastsy, nodeId;
 
 		/* Start drawing the graph mote id */
-		SingleGraph(Graphics g, int id) {
+		SingleGraph(int id) {
 			nodeId = id;
-			lastsx = -1;
 			lastsy = -1;
+			path.reset();
 		}
 
 		/* Next point in mote's graph is at x value gx, screen coordinate sx */
-		void nextPoint(Graphics g, int gx, int sx) {
+		void nextPoint(int gx, int sx) {
 			int gy = parent.parent.data.getData(nodeId, gx);
-			int sy = -1;
+			int sy = gy >= 0 ? toScreenY(gy) : -1; // Ignore missing values
+			lineTo(sx, sy);
+		}
 
-			if (gy >= 0) { // Ignore missing values
-				double rsy = height - yscale * (gy - gy0);
+		/* Next column of mote's graph holds x values from .. to - 1, at screen
+		   coordinate sx: a line from the previous column to the nearer of its
+		   extremes, and on to the other */
+		void nextColumn(int from, int to, int sx) {
+			if (!parent.parent.data.getRange(nodeId, from, to, range)) {
+				lineTo(sx, -1);
+				return;
+			}
+			int symin = toScreenY(range[0]), symax = toScreenY(range[1]);
+			if (symin < 0 || symax < 0) {
+				lineTo(sx, -1);
+			} else if (lastsy >= 0 && lastsy < (symin + symax) / 2) {
+				lineTo(sx, symax);
+				lineTo(sx, symin);
+			} else {
+				lineTo(sx, symin);
+				lineTo(sx, symax);
+			}
+		}
+
+		/* Screen y coordinate of gy, negative for a problem value */
+		private int toScreenY(int gy) {
+			double rsy = height - yscale * (gy - gy0);
 
-				// Ignore problem values
-				if (rsy >= -1e6 && rsy <= 1e6) {
-					sy = (int)(rsy + 0.5);
-				}
+			// Ignore problem values
+			if (rsy >= -1e6 && rsy <= 1e6) {
+				return (int)(rsy + 0.5);
+			}
+			return -1;
+		}
 
-				if (lastsy >= 0 && sy >= 0) {
-					g.drawLine(lastsx, lastsy, sx, sy);
-				}
+		/* Continue the graph to (sx, sy), or break it if sy is negative */
+		private void lineTo(int sx, int sy) {
+			if (lastsy >= 0 && sy >= 0) {
+				path.lineTo(sx, sy);
+			} else if (sy >= 0) {
+				path.moveTo(sx, sy);
 			}
-			lastsx = sx;
 			lastsy = sy;
 		}
 	}
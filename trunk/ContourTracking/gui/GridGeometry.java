@@ -0,0 +1,249 @@
+import java.io.*;
+import java.util.*;
+
+/* Placement of the motes on the tracking grid.
+
+   The grid is width x height cells addressed by a grid index
+   (row * width + col, row 0 at the bottom). Each cell holds at most one mote;
+   cells without a mote have id -1. The mapping is explicit in both
+   directions, so id/index/neighbor lookups are all constant time.
+
+   A layout is either loaded from a file (see load) or derived from the list
+   of known motes (see forMotes). Once built, a geometry is never modified, so
+   snapshots can safely share it. */
+class GridGeometry {
+	private int fWidth, fHeight;
+	private int[] fIds;     // grid index -> mote id, -1 for an empty cell
+	private int[] fIndexes; // mote id -> grid index, -1 if not on the grid
+	private int fMoteCount;
+	/* Grid indexes of the first and of the last column */
+	private long[] fFirstCol, fLastCol;
+
+	GridGeometry(int width, int height) {
+		if(width < 1 || height < 1)
+			throw new IllegalArgumentException("Invalid grid size " + width + "x" + height);
+
+		fWidth = width;
+		fHeight = height;
+		fIds = new int[width * height];
+		Arrays.fill(fIds, -1);
+		fIndexes = new int[0];
+		fFirstCol = new long[(fIds.length + 63) / 64];
+		fLastCol = new long[fFirstCol.length];
+		for(int row = 0; row < height; row++) {
+			int first = row * width, last = first + width - 1;
+			fFirstCol[first >>> 6] |= 1L << first;
+			fLastCol[last >>> 6] |= 1L << last;
+		}
+	}
+
+	/* Default layout: the motes in increasing id order, row-major in a square
+	   grid of at least 3x3 (this is the layout of the original 3x3 and 4x4
+	   deployments). */
+	static GridGeometry forMotes(int[] ids, int count) {
+		int dim = Math.max(3, (int)Math.ceil(Math.sqrt(count)));
+		GridGeometry geometry = new GridGeometry(dim, dim);
+		for(int i = 0; i < count; i++)
+			geometry.place(ids[i], i / dim, i % dim);
+
+		return geometry;
+	}
+
+	/* Read a layout file. The first line holds the grid width and height,
+	   each following line holds "id row col". Blank lines and anything after
+	   a '#' are ignored. */
+	static GridGeometry load(String filename) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		GridGeometry geometry = null;
+		try {
+			String line;
+			int lineNo = 0;
+			while((line = in.readLine()) != null) {
+				lineNo++;
+				int hash = line.indexOf('#');
+				if(hash >= 0)
+					line = line.substring(0, hash);
+				line = line.trim();
+				if(line.length() == 0)
+					continue;
+
+				String[] fields = line.split("\\s+");
+				try {
+					if(geometry == null && fields.length == 2) {
+						geometry = new GridGeometry(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]));
+					} else if(geometry != null && fields.length == 3) {
+						geometry.place(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+					} else {
+						throw new IOException(filename + ":" + lineNo + ": expected " + (geometry == null ? "\"width height\"" : "\"id row col\""));
+					}
+				} catch(NumberFormatException e) {
+					throw new IOException(filename + ":" + lineNo + ": invalid number");
+				} catch(IllegalArgumentException e) {
+					throw new IOException(filename + ":" + lineNo + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		if(geometry == null)
+			throw new IOException(filename + ": empty layout");
+		return geometry;
+	}
+
+	/* Put mote id at (row, col). Only used while building the layout. */
+	void place(int id, int row, int col) {
+		if(id < 0 || id > 65535)
+			throw new IllegalArgumentException("Invalid mote id " + id);
+		if(row < 0 || row >= fHeight || col < 0 || col >= fWidth)
+			throw new IllegalArgumentException("Mote " + id + " at (" + row + ", " + col + ") is outside the grid");
+
+		int idx = row * fWidth + col;
+		if(fIds[idx] != -1)
+			throw new IllegalArgumentException("Motes " + fIds[idx] + " and " + id + " are both at (" + row + ", " + col + ")");
+		if(getIndex(id) != -1)
+			throw new IllegalArgumentException("Mote " + id + " is placed twice");
+
+		if(id >= fIndexes.length) {
+			int oldLength = fIndexes.length;
+			fIndexes = Arrays.copyOf(fIndexes, Math.max(id + 1, oldLength * 2));
+			Arrays.fill(fIndexes, oldLength, fIndexes.length, -1);
+		}
+		fIds[idx] = id;
+		fIndexes[id] = idx;
+		fMoteCount++;
+	}
+
+	int getWidth() {
+		return fWidth;
+	}
+
+	int getHeight() {
+		return fHeight;
+	}
+
+	/* Number of grid indexes (cells), including empty ones */
+	int size() {
+		return fIds.length;
+	}
+
+	/* Number of motes placed on the grid */
+	int getMoteCount() {
+		return fMoteCount;
+	}
+
+	int getRow(int idx) {
+		return idx / fWidth;
+	}
+
+	int getCol(int idx) {
+		return idx % fWidth;
+	}
+
+	/* Return the mote id at grid index idx, or -1 */
+	int getMoteId(int idx) {
+		if(idx < 0 || idx >= fIds.length)
+			return -1;
+
+		return fIds[idx];
+	}
+
+	/* Return the grid index of mote id, or -1 if it isn't on the grid */
+	int getIndex(int id) {
+		if(id < 0 || id >= fIndexes.length)
+			return -1;
+
+		return fIndexes[id];
+	}
+
+	boolean contains(int id) {
+		return getIndex(id) != -1;
+	}
+
+	/* Return the grid index next to idx in direction pos, or -1 when that
+	   falls off the grid. The cell may be empty. */
+	int getNeighbor(int idx, ContourTracking.Position pos) {
+		if(idx < 0 || idx >= fIds.length)
+			return -1;
+
+		int row = idx / fWidth;
+		int col = idx % fWidth;
+		switch(pos) {
+			case BL:
+				return row - 1 >= 0 && col - 1 >= 0 ? idx - fWidth - 1 : -1;
+			case B:
+				return row - 1 >= 0 ? idx - fWidth : -1;
+			case BR:
+				return row - 1 >= 0 && col + 1 < fWidth ? idx - fWidth + 1 : -1;
+			case L:
+				return col - 1 >= 0 ? idx - 1 : -1;
+			case R:
+				return col + 1 < fWidth ? idx + 1 : -1;
+			case UL:
+				return row + 1 < fHeight && col - 1 >= 0 ? idx + fWidth - 1 : -1;
+			case U:
+				return row + 1 < fHeight ? idx + fWidth : -1;
+			case UR:
+			default:
+				return row + 1 < fHeight && col + 1 < fWidth ? idx + fWidth + 1 : -1;
+		}
+	}
+
+	/* True if the two grid indexes are different and 8-connected */
+	boolean isNeighboring(int thisIdx, int thatIdx) {
+		if(thisIdx < 0 || thatIdx < 0 || thisIdx == thatIdx)
+			return false;
+
+		int dRow = thisIdx / fWidth - thatIdx / fWidth;
+		int dCol = thisIdx % fWidth - thatIdx % fWidth;
+		return dRow >= -1 && dRow <= 1 && dCol >= -1 && dCol <= 1;
+	}
+
+	/* Return the bitset of grid indexes that are in bits or 8-connected to
+	   one of them. bits holds one bit per grid index, as a blob does. */
+	long[] dilate(long[] bits) {
+		int words = fFirstCol.length;
+		long[] row = new long[words];
+		// left and right neighbors, without wrapping between rows
+		for(int w = 0; w < words; w++) {
+			long right = bits[w] << 1 | (w > 0 ? bits[w - 1] >>> 63 : 0);
+			long left = bits[w] >>> 1 | (w + 1 < words ? bits[w + 1] << 63 : 0);
+			row[w] = bits[w] | (right & ~fFirstCol[w]) | (left & ~fLastCol[w]);
+		}
+		// the last mote may have spilled past the end of the grid
+		int tail = fIds.length & 63;
+		if(tail != 0)
+			row[words - 1] &= (1L << tail) - 1;
+		// then the rows above and below
+		long[] dilated = row.clone();
+		shiftOr(row, fWidth, dilated);
+		shiftOr(row, -fWidth, dilated);
+		if(tail != 0)
+			dilated[words - 1] &= (1L << tail) - 1;
+		return dilated;
+	}
+
+	/* dst |= src shifted towards higher indexes by n bits (lower if n < 0) */
+	private static void shiftOr(long[] src, int n, long[] dst) {
+		int words = src.length;
+		int wordShift = Math.abs(n) >>> 6, bitShift = Math.abs(n) & 63;
+		for(int w = 0; w < words; w++) {
+			int from = n >= 0 ? w - wordShift : w + wordShift;
+			if(from < 0 || from >= words)
+				continue;
+
+			long value;
+			if(bitShift == 0)
+				value = src[from];
+			else if(n >= 0)
+				value = src[from] << bitShift | (from > 0 ? src[from - 1] >>> (64 - bitShift) : 0);
+			else
+				value = src[from] >>> bitShift | (from + 1 < words ? src[from + 1] << (64 - bitShift) : 0);
+			dst[w] |= value;
+		}
+	}
+
+	boolean sameLayout(GridGeometry geometry) {
+		return geometry == this || (geometry != null && fWidth == geometry.fWidth && fHeight == geometry.fHeight && Arrays.equals(fIds, geometry.fIds));
+	}
+}
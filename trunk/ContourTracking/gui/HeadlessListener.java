@@ -0,0 +1,32 @@
+/* The user interface of a tracker running without a display (-headless):
+   events and errors go to the console. */
+class HeadlessListener implements TrackingListener {
+	private ContourTracking fParent;
+
+	HeadlessListener(ContourTracking parent) {
+		fParent = parent;
+	}
+
+	public void newNode(int nodeId) {
+		System.out.println("New mote " + nodeId);
+	}
+
+	public void newData() {
+	}
+
+	public void updateSamplePeriod() {
+		System.out.println("Sample period " + fParent.interval);
+	}
+
+	public void showText(String text) {
+		System.out.println(text);
+	}
+
+	public void recordingStopped(long written, long dropped) {
+		System.out.println("Recording: " + written + " snapshots written, " + dropped + " dropped");
+	}
+
+	public void error(String msg) {
+		System.err.println(msg);
+	}
+}
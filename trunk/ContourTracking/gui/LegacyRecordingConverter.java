@@ -0,0 +1,180 @@
+import java.io.*;
+import java.util.*;
+
+/* Converts a recording written with ObjectOutputStream by earlier versions
+   of ContourTracking (a stream of serialized ContourTracking.Snapshot
+   objects) to the format described in RecordingFormat:
+
+     java LegacyRecordingConverter <old.ect> <new.ect>
+
+   The old classes no longer exist, so their class descriptors are mapped to
+   the stand-ins below, which declare the same serialized fields. The old
+   layout is rebuilt from each snapshot's motes (the same square grid in
+   increasing id order that GridGeometry.forMotes builds), blobs are
+   re-labelled from the samples, and blob ids and blob events are derived as
+   the tracker would have. The recorded events are kept as they are. */
+public class LegacyRecordingConverter {
+	@SuppressWarnings("serial")
+	static class OldTracker implements Serializable {
+		int interval, threshold, version;
+		boolean fRecording;
+		Object snapshots;
+	}
+
+	@SuppressWarnings("serial")
+	static class OldSnapshot implements Serializable {
+		Map<Integer, OldMote> fMoteGrid;
+		Object fBlobs;
+		OldEvent fEvent;
+		Object this$0;
+	}
+
+	@SuppressWarnings("serial")
+	static class OldBlob implements Serializable {
+		Object fSnapshot;
+		Object fMotes;
+		Object this$0;
+	}
+
+	@SuppressWarnings("serial")
+	static class OldMote implements Serializable {
+		Object fColor;
+		int fThreshold;
+		int fSample;
+		long fSampleTimestamp;
+		Object this$0;
+	}
+
+	@SuppressWarnings("serial")
+	static class OldEvent implements Serializable {
+		boolean FORM, VANISH, MERGE, SPLIT, EXPAND, SHRINK, MOVE;
+		ContourTracking.Event.Direction fDir;
+	}
+
+	private static final Map<String, Class<?>> LEGACY_CLASSES = new HashMap<String, Class<?>>();
+	static {
+		LEGACY_CLASSES.put("ContourTracking", OldTracker.class);
+		LEGACY_CLASSES.put("ContourTracking$Snapshot", OldSnapshot.class);
+		LEGACY_CLASSES.put("ContourTracking$Blob", OldBlob.class);
+		LEGACY_CLASSES.put("ContourTracking$Mote", OldMote.class);
+		LEGACY_CLASSES.put("ContourTracking$Event", OldEvent.class);
+	}
+
+	private static class LegacyInputStream extends ObjectInputStream {
+		LegacyInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			ObjectStreamClass desc = super.readClassDescriptor();
+			Class<?> local = LEGACY_CLASSES.get(desc.getName());
+			return local != null ? ObjectStreamClass.lookup(local) : desc;
+		}
+	}
+
+	private ContourTracking fTracker = new ContourTracking();
+	private BlobLabeller fLabeller = new BlobLabeller();
+	private GridGeometry fGeometry;
+	private ContourTracking.Snapshot fPrevSnapshot;
+
+	/* Convert one old snapshot */
+	ContourTracking.Snapshot convert(OldSnapshot old) {
+		int[] ids = new int[old.fMoteGrid.size()];
+		int count = 0, threshold = Constants.DEFAULT_THRESHOLD;
+		for(Map.Entry<Integer, OldMote> entry: new TreeMap<Integer, OldMote>(old.fMoteGrid).entrySet()) {
+			ids[count++] = entry.getKey();
+			threshold = entry.getValue().fThreshold;
+		}
+		GridGeometry geometry = GridGeometry.forMotes(ids, count);
+		if(geometry.sameLayout(fGeometry))
+			geometry = fGeometry;
+		fGeometry = geometry;
+
+		int size = geometry.size();
+		int[] samples = new int[size];
+		long[] timestamps = new long[size];
+		long[] mask = new long[(size + 63) / 64];
+		Arrays.fill(samples, -1);
+		Arrays.fill(timestamps, -1);
+		for(Map.Entry<Integer, OldMote> entry: old.fMoteGrid.entrySet()) {
+			int idx = geometry.getIndex(entry.getKey());
+			OldMote mote = entry.getValue();
+			samples[idx] = mote.fSample;
+			timestamps[idx] = mote.fSampleTimestamp;
+			if(mote.fSample >= 0 && mote.fSample >= threshold)
+				mask[idx >>> 6] |= 1L << idx;
+		}
+
+		fLabeller.label(mask, geometry.getWidth(), geometry.getHeight());
+		int[] labels = new int[size];
+		for(int idx = 0; idx < size; idx++)
+			labels[idx] = fLabeller.getLabel(idx);
+		ContourTracking.Snapshot snapshot = new ContourTracking.Snapshot(geometry, threshold, samples, timestamps, mask, labels);
+		snapshot.setEvent(convert(old.fEvent));
+		fTracker.identifyBlobs(fPrevSnapshot, snapshot);
+		fPrevSnapshot = snapshot;
+		return snapshot;
+	}
+
+	/* Convert an old event, if there was one */
+	static ContourTracking.Event convert(OldEvent old) {
+		if(old == null)
+			return null;
+		ContourTracking.Event event = new ContourTracking.Event();
+		event.FORM = old.FORM;
+		event.VANISH = old.VANISH;
+		event.MERGE = old.MERGE;
+		event.SPLIT = old.SPLIT;
+		event.EXPAND = old.EXPAND;
+		event.SHRINK = old.SHRINK;
+		event.MOVE = old.MOVE;
+		event.fDir = old.fDir;
+		return event;
+	}
+
+	/* Convert the recording in from to the new format in to. Returns the
+	   number of snapshots converted. */
+	int convert(String from, String to) throws IOException {
+		ObjectInputStream in = new LegacyInputStream(new BufferedInputStream(new FileInputStream(from)));
+		RecordingWriter out = null;
+		int count = 0;
+		try {
+			out = new RecordingWriter(new BufferedOutputStream(new FileOutputStream(to)));
+			while(true) {
+				Object object;
+				try {
+					object = in.readObject();
+				} catch(EOFException e) {
+					break;
+				} catch(ClassNotFoundException e) {
+					throw new IOException(from + ": unknown class " + e.getMessage());
+				}
+				if(!(object instanceof OldSnapshot))
+					throw new IOException(from + ": not a snapshot: " + object);
+
+				out.write(convert((OldSnapshot)object));
+				count++;
+			}
+		} finally {
+			in.close();
+			if(out != null)
+				out.close();
+		}
+		return count;
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.err.println("usage: LegacyRecordingConverter <old.ect> <new.ect>");
+			System.exit(2);
+		}
+
+		try {
+			int count = new LegacyRecordingConverter().convert(args[0], args[1]);
+			System.out.println("Converted " + count + " snapshots to " + args[1]);
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
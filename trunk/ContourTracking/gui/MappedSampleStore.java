@@ -0,0 +1,485 @@
+import java.io.*;
+import java.lang.invoke.VarHandle;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/* Keeps the samples of every mote in memory-mapped files rather than on
+   the heap, so that hours of history for thousands of motes cost neither
+   heap space nor garbage collection. Selected with -store <directory>.
+
+   The store is a scratch file made of SEGMENT_CHUNKS-chunk segments, each
+   mapped separately as it is needed. A mote's history is a list of chunks,
+   each holding CHUNK_MESSAGES consecutive messages:
+
+   chunk := CHUNK_MESSAGES x message timestamp (long)
+            received bitmap, one bit per message (CHUNK_MESSAGES / 8 bytes)
+            CHUNK_MESSAGES x NREADINGS x sample (unsigned short)
+
+   The first timestamp of each chunk is also kept on the heap, which with
+   the message timestamps (never decreasing within a history) makes
+   findData a pair of binary searches. So are the smallest and largest
+   sample of each chunk and of each BLOCK_MESSAGES-message block of one,
+   which getRange takes for whole chunks and blocks rather than looking at
+   their samples. Like Node, a history is written by
+   one thread at a time and read without locking, retrying when seq changes
+   under a reader. Unlike Node's, most of what a reader looks at (the mapped
+   buffers and the chunk arrays' elements) is read and written with plain
+   accesses, so fences keep them inside the seq updates: a store-store
+   fence after the writer makes seq odd, and a load-load fence before a
+   reader checks that seq did not change. Space is never reused: clearing
+   the data or a mote rebooting leaves its old chunks behind until the file
+   is deleted on exit. */
+class MappedSampleStore {
+	static final int CHUNK_MESSAGES = 1024;
+	static final int SEGMENT_CHUNKS = 1024;
+	static final int BLOCK_MESSAGES = 32;
+	private static final int BLOCKS = CHUNK_MESSAGES / BLOCK_MESSAGES;
+
+	private static final int BITMAP = CHUNK_MESSAGES * 8;
+	private static final int SAMPLES = BITMAP + CHUNK_MESSAGES / 8;
+	static final int CHUNK_SIZE = SAMPLES + CHUNK_MESSAGES * Constants.NREADINGS * 2;
+
+	/* A chunk's or block's summary: its smallest sample in the low half and
+	   its largest in the high half, EMPTY (smallest above largest) if it has
+	   none, STALE if a sample was overwritten or removed and it must be
+	   worked out again */
+	private static final int EMPTY = 0xFFFF, STALE = 0x1FFFF;
+
+	/* A gap of more missing messages than this starts the history over */
+	static final int MAX_GAP = CHUNK_MESSAGES;
+
+	private File fFile;
+	private RandomAccessFile fRaf;
+	private FileChannel fChannel;
+	/* Mapped segments; never modified once published */
+	private volatile ByteBuffer[] fSegments = new ByteBuffer[0];
+	private int fChunks;
+	private boolean fFull;
+
+	/* Create the store in a new scratch file in directory */
+	MappedSampleStore(File directory) throws IOException {
+		fFile = File.createTempFile("samples", ".dat", directory);
+		fFile.deleteOnExit();
+		fRaf = new RandomAccessFile(fFile, "rw");
+		fChannel = fRaf.getChannel();
+	}
+
+	SampleHistory newHistory(int nodeId) {
+		return new History();
+	}
+
+	/* Return a new zero-filled chunk, or -1 if the disk is full. The error
+	   is only reported once. */
+	private synchronized int allocate() {
+		int chunk = fChunks;
+		int segment = chunk / SEGMENT_CHUNKS;
+		if(segment == fSegments.length) {
+			try {
+				ByteBuffer[] segments = new ByteBuffer[segment + 1];
+				System.arraycopy(fSegments, 0, segments, 0, segment);
+				segments[segment] = fChannel.map(FileChannel.MapMode.READ_WRITE,
+					(long)segment * SEGMENT_CHUNKS * CHUNK_SIZE, (long)SEGMENT_CHUNKS * CHUNK_SIZE);
+				fSegments = segments;
+			} catch(IOException e) {
+				if(!fFull)
+					System.err.println("Sample store " + fFile + " full, dropping samples: " + e.getMessage());
+				fFull = true;
+				return -1;
+			}
+		}
+		fChunks++;
+		return chunk;
+	}
+
+	private ByteBuffer segment(int chunk) {
+		return fSegments[chunk / SEGMENT_CHUNKS];
+	}
+
+	private static int offset(int chunk) {
+		return chunk % SEGMENT_CHUNKS * CHUNK_SIZE;
+	}
+
+	/* The history of one mote: messages startMessage through endMessage - 1,
+	   the message at position p (from startMessage) being in slot
+	   p % CHUNK_MESSAGES of chunk chunks[p / CHUNK_MESSAGES] */
+	private class History extends SampleHistory {
+		/* Odd while the writer is updating the history */
+		private volatile int seq;
+
+		/* Chunks in use, their first message timestamps, and the summaries
+		   of the chunks and of their blocks (block b of chunk c at
+		   c * BLOCKS + b). The arrays are replaced when they grow. */
+		private volatile int[] chunks = new int[4];
+		private volatile long[] firstTimestamps = new long[4];
+		private volatile int[] summaries = new int[4];
+		private volatile int[] blockSummaries = new int[4 * BLOCKS];
+		private volatile int chunkCount;
+
+		private volatile int startMessage, endMessage;
+		private volatile long lastTimestamp = -1;
+		private volatile boolean synced;
+
+		void update(int messageId, int[] readings, long timestamp, boolean sync) {
+			seq++;
+			VarHandle.storeStoreFence();
+			try {
+				if(isLate(messageId, timestamp, endMessage, lastTimestamp)) {
+					if(messageId >= startMessage)
+						store(messageId, timestamp, readings);
+					return;
+				}
+				/* Start over on the first message, when the mote rebooted, or
+				   after a long silence */
+				if(chunkCount == 0 || messageId < startMessage || messageId - endMessage > MAX_GAP) {
+					chunkCount = 0;
+					startMessage = endMessage = messageId;
+				}
+				/* Mark any missing messages, with timestamps interpolated between
+				   the messages either side so that they stay in order */
+				int from = endMessage;
+				for(int m = from; m < messageId; m++) {
+					long t = lastTimestamp + (timestamp - lastTimestamp) * (m - from + 1) / (messageId - from + 1);
+					if(!store(m, t, null))
+						return;
+					endMessage = m + 1;
+				}
+				/* If we receive a count less than the old count, we assume the
+				   old data after it is invalid */
+				if(store(messageId, timestamp, readings)) {
+					endMessage = messageId + 1;
+					lastTimestamp = timestamp;
+					synced = sync;
+				}
+			} finally {
+				seq++;
+			}
+		}
+
+		/* Write message, or mark it missing if readings is null. Returns
+		   false if there is no room for it. */
+		private boolean store(int message, long timestamp, int[] readings) {
+			int p = message - startMessage;
+			int c = p / CHUNK_MESSAGES, slot = p % CHUNK_MESSAGES;
+			if(c == chunkCount) {
+				int chunk = allocate();
+				if(chunk == -1)
+					return false;
+				if(c == chunks.length) {
+					int[] newChunks = new int[c * 2];
+					long[] newTimestamps = new long[c * 2];
+					int[] newSummaries = new int[c * 2];
+					int[] newBlockSummaries = new int[c * 2 * BLOCKS];
+					System.arraycopy(chunks, 0, newChunks, 0, c);
+					System.arraycopy(firstTimestamps, 0, newTimestamps, 0, c);
+					System.arraycopy(summaries, 0, newSummaries, 0, c);
+					System.arraycopy(blockSummaries, 0, newBlockSummaries, 0, c * BLOCKS);
+					newChunks[c] = chunk;
+					chunks = newChunks;
+					firstTimestamps = newTimestamps;
+					summaries = newSummaries;
+					blockSummaries = newBlockSummaries;
+				} else {
+					chunks[c] = chunk;
+				}
+				summaries[c] = EMPTY;
+				java.util.Arrays.fill(blockSummaries, c * BLOCKS, (c + 1) * BLOCKS, EMPTY);
+				chunkCount = c + 1;
+			}
+
+			int chunk = chunks[c];
+			ByteBuffer buffer = segment(chunk);
+			int base = offset(chunk);
+			buffer.putLong(base + slot * 8, timestamp);
+			if(slot == 0)
+				firstTimestamps[c] = timestamp;
+			int bitmap = base + BITMAP + slot / 8;
+			int bit = 1 << slot % 8;
+			boolean overwritten = (buffer.get(bitmap) & bit) != 0;
+			buffer.put(bitmap, (byte)(readings != null ? buffer.get(bitmap) | bit : buffer.get(bitmap) & ~bit));
+			int samples = base + SAMPLES + slot * Constants.NREADINGS * 2;
+			if(readings != null) {
+				for(int i = 0; i < readings.length && i < Constants.NREADINGS; i++)
+					buffer.putShort(samples + i * 2, (short)readings[i]);
+			}
+
+			/* A new message widens the summaries; anything else makes them
+			   stale, and they are worked out again once the block or chunk is
+			   done with: its last message is written, or it is all before the
+			   end of the history */
+			int summary = summaries[c];
+			int b = c * BLOCKS + slot / BLOCK_MESSAGES;
+			int block = blockSummaries[b];
+			if(overwritten) {
+				summary = block = STALE;
+			} else if(readings != null) {
+				for(int i = 0; i < Constants.NREADINGS; i++) {
+					int value = buffer.getShort(samples + i * 2) & 0xFFFF;
+					if(summary != STALE)
+						summary = widen(summary, value);
+					if(block != STALE)
+						block = widen(block, value);
+				}
+			}
+			int done = endMessage - startMessage;
+			int blockStart = slot - slot % BLOCK_MESSAGES;
+			if(block == STALE && (slot == blockStart + BLOCK_MESSAGES - 1 || c * CHUNK_MESSAGES + blockStart + BLOCK_MESSAGES <= done))
+				block = summarize(buffer, base, blockStart);
+			blockSummaries[b] = block;
+			if(summary == STALE && (slot == CHUNK_MESSAGES - 1 || (c + 1) * CHUNK_MESSAGES <= done)) {
+				summary = EMPTY;
+				for(int i = c * BLOCKS; i < (c + 1) * BLOCKS; i++) {
+					if(blockSummaries[i] == STALE)
+						blockSummaries[i] = summarize(buffer, base, (i - c * BLOCKS) * BLOCK_MESSAGES);
+					summary = merge(summary, blockSummaries[i]);
+				}
+			}
+			summaries[c] = summary;
+			return true;
+		}
+
+		/* The following read the history as of one seq value; they return
+		   Long.MIN_VALUE if it changed under them, and are retried. */
+
+		private long readData(int x) {
+			int s = seq;
+			if((s & 1) != 0)
+				return Long.MIN_VALUE;
+			int p = x / Constants.NREADINGS - startMessage;
+			long value = -1;
+			if(x >= 0 && p >= 0 && x / Constants.NREADINGS < endMessage) {
+				int[] chunks = this.chunks;
+				int c = p / CHUNK_MESSAGES, slot = p % CHUNK_MESSAGES;
+				if(c < chunks.length) {
+					int chunk = chunks[c];
+					ByteBuffer buffer = segment(chunk);
+					int base = offset(chunk);
+					if((buffer.get(base + BITMAP + slot / 8) & 1 << slot % 8) != 0)
+						value = buffer.getShort(base + SAMPLES + (slot * Constants.NREADINGS + x % Constants.NREADINGS) * 2) & 0xFFFF;
+				}
+			}
+			VarHandle.loadLoadFence();
+			return seq == s ? value : Long.MIN_VALUE;
+		}
+
+		private long readTimestamp(int x, int interval) {
+			int s = seq;
+			if((s & 1) != 0)
+				return Long.MIN_VALUE;
+			int p = x / Constants.NREADINGS - startMessage;
+			long timestamp = -1;
+			if(x >= 0 && p >= 0 && x / Constants.NREADINGS < endMessage) {
+				int[] chunks = this.chunks;
+				int c = p / CHUNK_MESSAGES;
+				if(c < chunks.length)
+					timestamp = messageTimestamp(chunks[c], p % CHUNK_MESSAGES)
+						- (long)(Constants.NREADINGS - 1 - x % Constants.NREADINGS) * interval;
+			}
+			VarHandle.loadLoadFence();
+			return seq == s ? timestamp : Long.MIN_VALUE;
+		}
+
+		private long readFind(long timestamp, int interval) {
+			int s = seq;
+			if((s & 1) != 0)
+				return Long.MIN_VALUE;
+			int[] chunks = this.chunks;
+			long[] firstTimestamps = this.firstTimestamps;
+			int messages = endMessage - startMessage;
+			/* Chunks past the end may be left over from before a shorter count */
+			int count = Math.min(Math.min(chunkCount, chunks.length), (messages + CHUNK_MESSAGES - 1) / CHUNK_MESSAGES);
+			long x = -1;
+
+			/* Last chunk, then last message in it, at or before timestamp */
+			int c = lastAtOrBefore(firstTimestamps, count, timestamp);
+			if(c >= 0 && messages > 0) {
+				int low = 0, high = Math.min(CHUNK_MESSAGES, messages - c * CHUNK_MESSAGES) - 1, slot = 0;
+				while(low <= high) {
+					int mid = (low + high) >>> 1;
+					if(messageTimestamp(chunks[c], mid) <= timestamp) {
+						slot = mid;
+						low = mid + 1;
+					} else {
+						high = mid - 1;
+					}
+				}
+				int p = c * CHUNK_MESSAGES + slot;
+				x = (long)(startMessage + p) * Constants.NREADINGS + Constants.NREADINGS - 1;
+
+				/* The next message's first samples may be earlier still */
+				if(p + 1 < messages && interval > 0) {
+					int next = p + 1;
+					if(next / CHUNK_MESSAGES < count) {
+						long nextTimestamp = messageTimestamp(chunks[next / CHUNK_MESSAGES], next % CHUNK_MESSAGES);
+						long back = (nextTimestamp - timestamp + interval - 1) / interval;
+						if(back < Constants.NREADINGS)
+							x = (long)(startMessage + next) * Constants.NREADINGS + Constants.NREADINGS - 1 - back;
+					}
+				}
+			}
+			VarHandle.loadLoadFence();
+			return seq == s ? x : Long.MIN_VALUE;
+		}
+
+		/* Smallest and largest samples from .. to - 1, max << 16 | min, or -1
+		   if there are none: whole chunks and blocks from their summaries, the
+		   samples of the blocks at either end one by one */
+		private long readRange(int from, int to) {
+			int s = seq;
+			if((s & 1) != 0)
+				return Long.MIN_VALUE;
+			int[] chunks = this.chunks;
+			int[] summaries = this.summaries;
+			int[] blockSummaries = this.blockSummaries;
+			int first = startMessage * Constants.NREADINGS;
+			int x = Math.max(from, first), end = Math.min(to, endMessage * Constants.NREADINGS);
+			int summary = EMPTY;
+			while(x < end) {
+				int p = x / Constants.NREADINGS - startMessage;
+				int c = p / CHUNK_MESSAGES;
+				if(c >= chunks.length || c >= summaries.length || (c + 1) * BLOCKS > blockSummaries.length)
+					break;
+				int chunkStart = first + c * CHUNK_MESSAGES * Constants.NREADINGS;
+				int chunkEnd = chunkStart + CHUNK_MESSAGES * Constants.NREADINGS;
+				if(x == chunkStart && chunkEnd <= end && summaries[c] != STALE) {
+					summary = merge(summary, summaries[c]);
+					x = chunkEnd;
+					continue;
+				}
+				int slot = p % CHUNK_MESSAGES;
+				int blockStart = chunkStart + (slot - slot % BLOCK_MESSAGES) * Constants.NREADINGS;
+				int blockEnd = blockStart + BLOCK_MESSAGES * Constants.NREADINGS;
+				int b = c * BLOCKS + slot / BLOCK_MESSAGES;
+				if(x == blockStart && blockEnd <= end && blockSummaries[b] != STALE) {
+					summary = merge(summary, blockSummaries[b]);
+					x = blockEnd;
+					continue;
+				}
+
+				int chunk = chunks[c];
+				ByteBuffer buffer = segment(chunk);
+				int base = offset(chunk);
+				if((buffer.get(base + BITMAP + slot / 8) & 1 << slot % 8) != 0)
+					summary = widen(summary, buffer.getShort(base + SAMPLES + (slot * Constants.NREADINGS + x % Constants.NREADINGS) * 2) & 0xFFFF);
+				x++;
+			}
+			VarHandle.loadLoadFence();
+			if(seq != s)
+				return Long.MIN_VALUE;
+			return (summary & 0xFFFF) <= summary >>> 16 ? summary & 0xFFFFFFFFL : -1;
+		}
+
+		private long messageTimestamp(int chunk, int slot) {
+			return segment(chunk).getLong(offset(chunk) + slot * 8);
+		}
+
+		int getData(int x) {
+			while(true) {
+				long value = readData(x);
+				if(value != Long.MIN_VALUE)
+					return (int)value;
+				Thread.yield();
+			}
+		}
+
+		boolean getRange(int from, int to, int[] range) {
+			while(true) {
+				long summary = readRange(from, to);
+				if(summary != Long.MIN_VALUE) {
+					if(summary < 0)
+						return false;
+					range[0] = (int)(summary & 0xFFFF);
+					range[1] = (int)(summary >>> 16);
+					return true;
+				}
+				Thread.yield();
+			}
+		}
+
+		long getDataTimestamp(int x, int interval) {
+			while(true) {
+				long timestamp = readTimestamp(x, interval);
+				if(timestamp != Long.MIN_VALUE)
+					return timestamp;
+				Thread.yield();
+			}
+		}
+
+		int findData(long timestamp, int interval) {
+			while(true) {
+				long x = readFind(timestamp, interval);
+				if(x != Long.MIN_VALUE)
+					return (int)x;
+				Thread.yield();
+			}
+		}
+
+		int getDataOffsetToLastSample(int x) {
+			while(true) {
+				int s = seq;
+				if((s & 1) == 0) {
+					int start = startMessage * Constants.NREADINGS, end = endMessage * Constants.NREADINGS;
+					int offset = x < start || x >= end ? -1 : end - 1 - x;
+					VarHandle.loadLoadFence();
+					if(seq == s)
+						return offset;
+				}
+				Thread.yield();
+			}
+		}
+
+		long getLastSamplingTimestamp() {
+			return lastTimestamp;
+		}
+
+		int maxX() {
+			return endMessage * Constants.NREADINGS - 1;
+		}
+
+		boolean isSynced() {
+			return synced;
+		}
+	}
+
+	/* summary with value added */
+	private static int widen(int summary, int value) {
+		int min = Math.min(summary & 0xFFFF, value), max = Math.max(summary >>> 16, value);
+		return max << 16 | min;
+	}
+
+	/* summary with the samples of other added */
+	private static int merge(int summary, int other) {
+		if((other & 0xFFFF) > other >>> 16)
+			return summary;
+		return widen(widen(summary, other & 0xFFFF), other >>> 16);
+	}
+
+	/* The summary of the block from slot first of the chunk at base in
+	   buffer, from its samples */
+	private static int summarize(ByteBuffer buffer, int base, int first) {
+		int summary = EMPTY;
+		for(int slot = first; slot < first + BLOCK_MESSAGES; slot++) {
+			if((buffer.get(base + BITMAP + slot / 8) & 1 << slot % 8) == 0)
+				continue;
+			int samples = base + SAMPLES + slot * Constants.NREADINGS * 2;
+			for(int i = 0; i < Constants.NREADINGS; i++)
+				summary = widen(summary, buffer.getShort(samples + i * 2) & 0xFFFF);
+		}
+		return summary;
+	}
+
+	/* Return the last of the first count entries of timestamps that is at
+	   or before timestamp, or -1 if there is none */
+	private static int lastAtOrBefore(long[] timestamps, int count, long timestamp) {
+		int low = 0, high = count - 1, found = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(timestamps[mid] <= timestamp) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,201 @@
+/* Traces the outlines of a snapshot's blobs with marching squares.
+
+   The motes are the corners of the squares, with a ring of virtual motes,
+   never in a blob, around the grid so that blobs on its edge are closed
+   off. The outline crosses every side of a square whose two corners are on
+   different sides of the blob boundary, at the point where the samples,
+   interpolated linearly along the side, reach the threshold. Where either
+   corner has no sample (an empty cell or a mote with no data) it crosses
+   halfway, and towards a virtual mote a quarter of the way, which is where
+   the grid's own edge would be drawn.
+
+   A square with two blob corners on one diagonal is joined through its
+   middle, as blobs are 8-connected (see BlobLabeller): each closed outline
+   is then the outer boundary of exactly one blob, or of a hole in one.
+   Outlines run with their blob on the right.
+
+   Each side of a square is visited a constant number of times, so tracing
+   is linear in the size of the grid. As with BlobLabeller, the working
+   arrays are kept between calls and only grow. */
+class MarchingSquares {
+	/* Outline vertices, in grid coordinates (x = column, y = row) */
+	private float[] fX = new float[0], fY = new float[0];
+	/* Start of each outline's vertices, and the end of the last one */
+	private int[] fStarts = new int[1];
+	private int fCount;
+
+	/* Per side of a square: the side the outline leaves the square by, if
+	   it enters by this one, or -1 */
+	private int[] fNext = new int[0];
+	private float[] fCrossX = new float[0], fCrossY = new float[0];
+
+	/* Size of the padded lattice: its corners are (x, y), 0 <= x < fCols,
+	   0 <= y < fRows, for mote (x - 1, y - 1) */
+	private int fCols, fRows;
+	private ContourTracking.Snapshot fSnapshot;
+
+	/* Trace the outlines of snapshot's blobs. Returns how many there are. */
+	int trace(ContourTracking.Snapshot snapshot) {
+		GridGeometry geometry = snapshot.getGeometry();
+		fSnapshot = snapshot;
+		fCols = geometry.getWidth() + 2;
+		fRows = geometry.getHeight() + 2;
+		int sides = (fCols - 1) * fRows + fCols * (fRows - 1);
+		if(fNext.length < sides) {
+			fNext = new int[sides];
+			fCrossX = new float[sides];
+			fCrossY = new float[sides];
+		}
+		java.util.Arrays.fill(fNext, 0, sides, -1);
+
+		/* Link the sides each square's outline enters and leaves it by. Going
+		   around the square counterclockwise (bottom, right, top, left), the
+		   outline leaves by a side running out of the blob and enters by one
+		   running into it; each side it leaves by is joined to the next one
+		   round that it enters by, which keeps the blob corners of a saddle
+		   together. */
+		int[] square = new int[4];
+		boolean[] in = new boolean[4];
+		for(int y = 0; y + 1 < fRows; y++) {
+			for(int x = 0; x + 1 < fCols; x++) {
+				in[0] = isIn(x, y);
+				in[1] = isIn(x + 1, y);
+				in[2] = isIn(x + 1, y + 1);
+				in[3] = isIn(x, y + 1);
+				if(in[0] == in[1] && in[1] == in[2] && in[2] == in[3])
+					continue;
+
+				square[0] = horizontal(x, y);
+				square[1] = vertical(x + 1, y);
+				square[2] = horizontal(x, y + 1);
+				square[3] = vertical(x, y);
+				for(int k = 0; k < 4; k++) {
+					if(!in[k] || in[(k + 1) % 4])
+						continue;
+
+					int enter = (k + 1) % 4;
+					while(in[enter] == in[(enter + 1) % 4] || in[enter])
+						enter = (enter + 1) % 4;
+					fNext[square[enter]] = square[k];
+				}
+			}
+		}
+
+		/* Follow the links round each outline */
+		fCount = 0;
+		int vertices = 0;
+		for(int side = 0; side < sides; side++) {
+			if(fNext[side] == -1)
+				continue;
+
+			if(fCount + 2 > fStarts.length) {
+				int[] starts = new int[fStarts.length * 2];
+				System.arraycopy(fStarts, 0, starts, 0, fCount + 1);
+				fStarts = starts;
+			}
+			fStarts[fCount++] = vertices;
+			int s = side;
+			do {
+				if(vertices == fX.length) {
+					float[] xs = new float[Math.max(64, vertices * 2)], ys = new float[xs.length];
+					System.arraycopy(fX, 0, xs, 0, vertices);
+					System.arraycopy(fY, 0, ys, 0, vertices);
+					fX = xs;
+					fY = ys;
+				}
+				fX[vertices] = fCrossX[s];
+				fY[vertices] = fCrossY[s];
+				vertices++;
+				int next = fNext[s];
+				fNext[s] = -1;
+				s = next;
+			} while(s != side);
+		}
+		fStarts[fCount] = vertices;
+		fSnapshot = null;
+		return fCount;
+	}
+
+	/* Number of outlines found by the last trace */
+	int getCount() {
+		return fCount;
+	}
+
+	/* Outline i's vertices are getStart(i) to getEnd(i) - 1 */
+	int getStart(int i) {
+		return fStarts[i];
+	}
+
+	int getEnd(int i) {
+		return fStarts[i + 1];
+	}
+
+	/* Column and row of vertex v */
+	float getX(int v) {
+		return fX[v];
+	}
+
+	float getY(int v) {
+		return fY[v];
+	}
+
+	/* All the vertices' columns and rows, outline after outline */
+	float[] getXs() {
+		return fX;
+	}
+
+	float[] getYs() {
+		return fY;
+	}
+
+	/* True if corner (x, y) is a mote in a blob */
+	private boolean isIn(int x, int y) {
+		if(x == 0 || y == 0 || x == fCols - 1 || y == fRows - 1)
+			return false;
+		return fSnapshot.getLabel(index(x, y)) != 0;
+	}
+
+	private int index(int x, int y) {
+		return (y - 1) * (fCols - 2) + x - 1;
+	}
+
+	/* Sides from (x, y) to (x + 1, y) and from (x, y) to (x, y + 1), with
+	   their crossing points worked out */
+	private int horizontal(int x, int y) {
+		int side = y * (fCols - 1) + x;
+		float t = crossing(x, y, x + 1, y);
+		fCrossX[side] = x - 1 + t;
+		fCrossY[side] = y - 1;
+		return side;
+	}
+
+	private int vertical(int x, int y) {
+		int side = (fCols - 1) * fRows + y * fCols + x;
+		float t = crossing(x, y, x, y + 1);
+		fCrossX[side] = x - 1;
+		fCrossY[side] = y - 1 + t;
+		return side;
+	}
+
+	/* Where the outline crosses from corner a to corner b, as a fraction of
+	   the way. Only meaningful if one of them is in a blob. */
+	private float crossing(int ax, int ay, int bx, int by) {
+		boolean aVirtual = ax == 0 || ay == 0 || ax == fCols - 1 || ay == fRows - 1;
+		boolean bVirtual = bx == 0 || by == 0 || bx == fCols - 1 || by == fRows - 1;
+		if(aVirtual)
+			return 0.75f;
+		if(bVirtual)
+			return 0.25f;
+
+		int a = index(ax, ay), b = index(bx, by);
+		if(fSnapshot.getMoteId(a) == -1 || fSnapshot.getMoteId(b) == -1)
+			return 0.5f;
+		int va = fSnapshot.getSample(a), vb = fSnapshot.getSample(b);
+		int threshold = fSnapshot.getThreshold();
+		/* Samples that disagree with the blobs (e.g. missing data) */
+		boolean aIn = fSnapshot.getLabel(a) != 0;
+		if(va < 0 || vb < 0 || (va >= threshold) != aIn || (vb >= threshold) == aIn)
+			return 0.5f;
+		return (float)(threshold - va) / (vb - va);
+	}
+}
@@ -0,0 +1,309 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Simulates a grid of ContourTracking motes and feeds their messages to a
+   tracker's messageReceived, the way the base stations would, for trying
+   out and load-testing ingestion and tracking without motes:
+
+     java MoteFieldSimulator [options]
+
+   The motes sit on a width x height grid, ids 1, 2, ... row by row from the
+   bottom, and each samples every interval ms, at a random phase, a field of
+   Gaussian plumes over a noisy background. The plumes drift and bounce off
+   the edges of the grid; two plumes that come closer than their radius
+   merge, and a plume splits in two now and then. Every NREADINGS samples a
+   mote sends a message, its FTSP global timestamp off by up to jitter ms.
+
+   The messages are delivered by one thread per base station, each hearing
+   the motes of its band of rows plus the row either side, so the rows
+   between bands are heard twice. A base station misses each message with
+   probability loss. Time can run faster than real time (-speedup), and a
+   line of statistics is printed every second. */
+public class MoteFieldSimulator {
+	/* Sample values: background, plume peak */
+	static final int BACKGROUND = 200;
+	static final int PEAK = 800;
+	static final int NOISE = 20;
+
+	int fWidth = 10, fHeight = 10;
+	int fInterval = Constants.DEFAULT_INTERVAL;
+	int fPlumes = 2;
+	double fLoss = 0;
+	int fJitter = 0;
+	int fStations = 1;
+	double fSpeedup = 1;
+	/* Mean seconds between a plume's splits, 0 for never */
+	double fSplitPeriod = 20;
+	int fDuration = 0;
+
+	private ContourTracking fTracker;
+	private List<Plume> fField = new ArrayList<Plume>();
+	private Random fRandom = new Random();
+	/* Per mote: sampling phase and message count */
+	private int[] fPhases;
+	private int[] fCounts;
+	private List<BlockingQueue<ContourTrackingMsg[]>> fQueues = new ArrayList<BlockingQueue<ContourTrackingMsg[]>>();
+
+	/* Statistics, readable from any thread */
+	private final AtomicLong fGenerated = new AtomicLong();
+	private final AtomicLong fDelivered = new AtomicLong();
+	private final AtomicLong fLost = new AtomicLong();
+
+	/* A plume of the field: position and velocity in grid cells (per second),
+	   and radius in cells */
+	static class Plume {
+		double fX, fY, fVx, fVy, fRadius;
+
+		Plume(double x, double y, double vx, double vy, double radius) {
+			fX = x;
+			fY = y;
+			fVx = vx;
+			fVy = vy;
+			fRadius = radius;
+		}
+
+		/* Field value contributed at (x, y), dt seconds from now: a Gaussian
+		   with standard deviation fRadius / 2 */
+		double valueAt(double x, double y, double dt) {
+			double dx = x - (fX + fVx * dt), dy = y - (fY + fVy * dt);
+			return PEAK * Math.exp(-2 * (dx * dx + dy * dy) / (fRadius * fRadius));
+		}
+	}
+
+	/* Run for fDuration seconds of simulated time, or forever */
+	void run() throws InterruptedException {
+		int motes = fWidth * fHeight;
+		GridGeometry geometry = new GridGeometry(fWidth, fHeight);
+		for(int i = 0; i < motes; i++)
+			geometry.place(i + 1, i / fWidth, i % fWidth);
+
+		fTracker.geometry = geometry;
+		fTracker.fixedGeometry = true;
+		fTracker.interval = fInterval;
+		fTracker.start();
+
+		fPhases = new int[motes];
+		fCounts = new int[motes];
+		for(int i = 0; i < motes; i++)
+			fPhases[i] = fRandom.nextInt(fInterval);
+		for(int i = 0; i < fPlumes; i++)
+			fField.add(randomPlume());
+		startStations();
+
+		/* Each round, every mote takes NREADINGS samples and sends them.
+		   Simulated time (the motes' FTSP time) starts at 0. */
+		final int period = fInterval * Constants.NREADINGS;
+		long start = System.currentTimeMillis();
+		long simTime = 0;
+		long nextReport = start + 1000, lastGenerated = 0, lastDelivered = 0;
+		while(fDuration == 0 || simTime < fDuration * 1000L) {
+			ContourTrackingMsg[] round = new ContourTrackingMsg[motes];
+			for(int i = 0; i < motes; i++)
+				round[i] = sample(i, simTime);
+			fGenerated.addAndGet(motes);
+			for(BlockingQueue<ContourTrackingMsg[]> queue: fQueues)
+				queue.put(round);
+			moveField(period / 1000.0);
+			simTime += period;
+
+			long now = System.currentTimeMillis();
+			long due = start + (long)(simTime / fSpeedup);
+			if(due > now)
+				Thread.sleep(due - now);
+			if(now >= nextReport) {
+				long generated = fGenerated.get(), delivered = fDelivered.get();
+				System.out.println("simulator: " + (generated - lastGenerated) + " msgs/s generated, "
+					+ (delivered - lastDelivered) + " delivered, " + fLost.get() + " lost in all, "
+					+ fField.size() + " plumes, " + Math.max(0, now - due) + " ms behind");
+				lastGenerated = generated;
+				lastDelivered = delivered;
+				nextReport += 1000;
+			}
+		}
+	}
+
+	/* The message mote i sends after its samples of the round starting at
+	   time */
+	private ContourTrackingMsg sample(int i, long time) {
+		int[] readings = new int[Constants.NREADINGS];
+		double x = i % fWidth, y = i / fWidth;
+		long last = 0;
+		for(int k = 0; k < readings.length; k++) {
+			long t = fPhases[i] + k * fInterval;
+			double value = BACKGROUND + fRandom.nextGaussian() * NOISE;
+			for(Plume plume: fField)
+				value += plume.valueAt(x, y, t / 1000.0);
+			readings[k] = Math.max(0, Math.min(65535, (int)value));
+			last = time + t;
+		}
+
+		ContourTrackingMsg msg = new ContourTrackingMsg();
+		msg.set_version(0);
+		msg.set_interval(fInterval);
+		msg.set_threshold(fTracker.getThreshold());
+		msg.set_id(i + 1);
+		msg.set_count(fCounts[i]);
+		fCounts[i] = (fCounts[i] + 1) & 0xFFFF;
+		msg.set_readings(readings);
+		msg.set_clock(last);
+		long jitter = fJitter > 0 ? fRandom.nextInt(2 * fJitter + 1) - fJitter : 0;
+		msg.set_ftsp_local_timestamp(last);
+		msg.set_ftsp_global_timestamp(Math.max(0, last + jitter));
+		msg.set_ftsp_root_id(1);
+		msg.set_ftsp_synced((short)1);
+		return msg;
+	}
+
+	private Plume randomPlume() {
+		double speed = 0.5 + fRandom.nextDouble(), angle = fRandom.nextDouble() * 2 * Math.PI;
+		return new Plume(fRandom.nextDouble() * fWidth, fRandom.nextDouble() * fHeight,
+			speed * Math.cos(angle), speed * Math.sin(angle), 1 + fRandom.nextDouble() * Math.min(fWidth, fHeight) / 6);
+	}
+
+	/* Move the plumes dt seconds on, merging and splitting them */
+	private void moveField(double dt) {
+		for(Plume plume: fField) {
+			plume.fX += plume.fVx * dt;
+			plume.fY += plume.fVy * dt;
+			if(plume.fX < 0 || plume.fX > fWidth - 1)
+				plume.fVx = -plume.fVx;
+			if(plume.fY < 0 || plume.fY > fHeight - 1)
+				plume.fVy = -plume.fVy;
+		}
+
+		for(int i = 0; i < fField.size(); i++) {
+			for(int j = i + 1; j < fField.size(); j++) {
+				Plume a = fField.get(i), b = fField.get(j);
+				if(Math.hypot(a.fX - b.fX, a.fY - b.fY) < Math.min(a.fRadius, b.fRadius)) {
+					/* Merge: same area, averaged motion */
+					a.fX = (a.fX + b.fX) / 2;
+					a.fY = (a.fY + b.fY) / 2;
+					a.fVx = (a.fVx + b.fVx) / 2;
+					a.fVy = (a.fVy + b.fVy) / 2;
+					a.fRadius = Math.hypot(a.fRadius, b.fRadius);
+					fField.remove(j--);
+				}
+			}
+		}
+
+		if(fSplitPeriod > 0) {
+			int count = fField.size();
+			for(int i = 0; i < count; i++) {
+				Plume plume = fField.get(i);
+				if(plume.fRadius >= 1.5 && fRandom.nextDouble() < dt / fSplitPeriod) {
+					/* Split across the direction of motion */
+					double radius = plume.fRadius / Math.sqrt(2);
+					double speed = Math.hypot(plume.fVx, plume.fVy) + 0.5;
+					double nx = -plume.fVy / speed, ny = plume.fVx / speed;
+					if(speed == 0.5) {
+						nx = 1;
+						ny = 0;
+					}
+					fField.add(new Plume(plume.fX + nx * radius, plume.fY + ny * radius,
+						plume.fVx + nx, plume.fVy + ny, radius));
+					plume.fX -= nx * radius;
+					plume.fY -= ny * radius;
+					plume.fVx -= nx;
+					plume.fVy -= ny;
+					plume.fRadius = radius;
+				}
+			}
+		}
+	}
+
+	/* One delivery thread per base station, each hearing a band of rows */
+	private void startStations() {
+		int rows = (fHeight + fStations - 1) / fStations;
+		for(int s = 0; s < fStations; s++) {
+			final int first = Math.max(0, s * rows - 1) * fWidth;
+			final int last = Math.min(fHeight, (s + 1) * rows + 1) * fWidth;
+			final BlockingQueue<ContourTrackingMsg[]> queue = new ArrayBlockingQueue<ContourTrackingMsg[]>(16);
+			final Random random = new Random(fRandom.nextLong());
+			fQueues.add(queue);
+			Thread thread = new Thread("station " + s) {
+				public void run() {
+					try {
+						while(true) {
+							ContourTrackingMsg[] round = queue.take();
+							for(int i = first; i < last; i++) {
+								if(fLoss > 0 && random.nextDouble() < fLoss) {
+									fLost.incrementAndGet();
+									continue;
+								}
+								fTracker.messageReceived(0, round[i]);
+								fDelivered.incrementAndGet();
+							}
+						}
+					} catch(InterruptedException e) {
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public static void main(String[] args) {
+		MoteFieldSimulator sim = new MoteFieldSimulator();
+		ContourTracking tracker = new ContourTracking();
+		tracker.headless = true;
+		boolean record = false;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if(arg.equals("-grid") && i + 1 < args.length) {
+					String[] size = args[++i].split("x");
+					sim.fWidth = Integer.parseInt(size[0]);
+					sim.fHeight = Integer.parseInt(size[1]);
+				} else if(arg.equals("-interval") && i + 1 < args.length) {
+					sim.fInterval = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-plumes") && i + 1 < args.length) {
+					sim.fPlumes = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-split") && i + 1 < args.length) {
+					sim.fSplitPeriod = Double.parseDouble(args[++i]);
+				} else if(arg.equals("-loss") && i + 1 < args.length) {
+					sim.fLoss = Double.parseDouble(args[++i]);
+				} else if(arg.equals("-jitter") && i + 1 < args.length) {
+					sim.fJitter = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-stations") && i + 1 < args.length) {
+					sim.fStations = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-speedup") && i + 1 < args.length) {
+					sim.fSpeedup = Double.parseDouble(args[++i]);
+				} else if(arg.equals("-duration") && i + 1 < args.length) {
+					sim.fDuration = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-seed") && i + 1 < args.length) {
+					sim.fRandom = new Random(Long.parseLong(args[++i]));
+				} else if(arg.equals("-gui")) {
+					tracker.headless = false;
+				} else if(arg.equals("-record")) {
+					record = true;
+				} else if(arg.equals("-trace") && i + 1 < args.length && Trace.configure(args[i + 1])) {
+					i++;
+				} else {
+					throw new IllegalArgumentException(arg);
+				}
+			}
+			if(sim.fWidth < 1 || sim.fHeight < 1 || sim.fInterval < 1 || sim.fStations < 1
+					|| sim.fSpeedup <= 0 || sim.fLoss < 0 || sim.fLoss >= 1 || sim.fJitter < 0)
+				throw new IllegalArgumentException();
+		} catch(RuntimeException e) {
+			System.err.println("usage: MoteFieldSimulator [-grid <width>x<height>] [-interval <ms>] [-plumes <n>]\n"
+				+ "         [-split <mean seconds between splits, 0 for none>] [-loss <probability>]\n"
+				+ "         [-jitter <ms>] [-stations <n>] [-speedup <factor>] [-duration <seconds>]\n"
+				+ "         [-seed <n>] [-gui] [-record] [-trace off|debug|verbose[/<sampling>]]");
+			System.exit(2);
+		}
+
+		sim.fTracker = tracker;
+		try {
+			if(record)
+				tracker.startRecording();
+			sim.run();
+		} catch(InterruptedException e) {
+		}
+		if(record)
+			tracker.stopRecording();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,191 @@
+/* Natural cubic splines through a sequence of knots, flattened to a
+   polyline.
+
+   The derivatives at the knots are found by solving the spline's
+   tridiagonal system (cyclic for a closed spline, after Spath, "Spline
+   Algorithms for Curves and Surfaces" pp 19--21) in scratch arrays, and
+   each segment is then evaluated straight into the polyline. Nothing is
+   allocated once the arrays are large enough: use the calling thread's
+   instance (get()) rather than a new one.
+
+   Rather than a fixed number of steps, each segment gets just enough to
+   stay within tolerance of the curve: by Wang's formula, a cubic is within
+   tolerance of the polyline through n evenly spaced points on it when
+   n >= sqrt(3/4 * M / tolerance), M being the largest second difference of
+   its Bezier control points. Straight stretches of a contour so come out
+   as a single step. */
+class NaturalSpline {
+	/* Most steps per segment, however curved */
+	static final int MAX_STEPS = 64;
+
+	private static final ThreadLocal<NaturalSpline> SCRATCH = new ThreadLocal<NaturalSpline>() {
+		protected NaturalSpline initialValue() {
+			return new NaturalSpline();
+		}
+	};
+
+	/* The calling thread's instance */
+	static NaturalSpline get() {
+		return SCRATCH.get();
+	}
+
+	private int fKnots;
+	private float[] fX = new float[0], fY = new float[0];
+	/* Derivatives at the knots, and scratch space for the solver */
+	private float[] fDx = new float[0], fDy = new float[0];
+	private float[] fV = new float[0], fW = new float[0], fZ = new float[0];
+	/* Output: x0, y0, x1, y1, ... */
+	private float[] fPolyline = new float[0];
+
+	/* Take knots x[from..from+n-1], y[from..from+n-1] */
+	void setKnots(float[] x, float[] y, int from, int n) {
+		ensureKnots(n);
+		System.arraycopy(x, from, fX, 0, n);
+		System.arraycopy(y, from, fY, 0, n);
+		fKnots = n;
+	}
+
+	/* Flatten the spline through the knots, closed (back to the first knot)
+	   or not, to within tolerance. Returns the number of vertices put in
+	   getPolyline(); a closed spline's last vertex is its first. Needs at
+	   least two knots, three for a closed spline; with fewer, the polyline
+	   just joins them. */
+	int flatten(boolean closed, float tolerance) {
+		int n = fKnots;
+		if(n < (closed ? 3 : 2)) {
+			ensurePolyline(n + 1);
+			for(int i = 0; i < n; i++) {
+				fPolyline[2 * i] = fX[i];
+				fPolyline[2 * i + 1] = fY[i];
+			}
+			return n;
+		}
+
+		if(closed) {
+			solveClosed(fX, fDx, n);
+			solveClosed(fY, fDy, n);
+		} else {
+			solveOpen(fX, fDx, n);
+			solveOpen(fY, fDy, n);
+		}
+
+		ensurePolyline(1);
+		fPolyline[0] = fX[0];
+		fPolyline[1] = fY[0];
+		int count = 1;
+		int segments = closed ? n : n - 1;
+		for(int k = 0; k < segments; k++) {
+			int k1 = k + 1 == n ? 0 : k + 1;
+			/* x(u) = ax + bx u + cx u^2 + dx u^3, 0 <= u <= 1, and y alike */
+			float ax = fX[k], bx = fDx[k];
+			float cx = 3 * (fX[k1] - fX[k]) - 2 * fDx[k] - fDx[k1];
+			float dx = 2 * (fX[k] - fX[k1]) + fDx[k] + fDx[k1];
+			float ay = fY[k], by = fDy[k];
+			float cy = 3 * (fY[k1] - fY[k]) - 2 * fDy[k] - fDy[k1];
+			float dy = 2 * (fY[k] - fY[k1]) + fDy[k] + fDy[k1];
+
+			/* Second differences of the Bezier control points a, a + b/3,
+			   a + 2b/3 + c/3, a + b + c + d */
+			float m = Math.max(Math.abs(cx) + Math.abs(cy),
+				Math.abs(cx + 3 * dx) + Math.abs(cy + 3 * dy)) / 3;
+			int steps = (int)Math.ceil(Math.sqrt(0.75 * m / tolerance));
+			steps = Math.max(1, Math.min(MAX_STEPS, steps));
+
+			ensurePolyline(count + steps);
+			for(int j = 1; j <= steps; j++) {
+				float u = j / (float)steps;
+				fPolyline[2 * count] = ((dx * u + cx) * u + bx) * u + ax;
+				fPolyline[2 * count + 1] = ((dy * u + cy) * u + by) * u + ay;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/* The vertices of the last flatten, x and y alternately */
+	float[] getPolyline() {
+		return fPolyline;
+	}
+
+	/* Derivatives D[0..n-1] of the natural spline through x[0..n-1]:
+	 *   [2 1       ] [D[0]  ]   [3(x[1] - x[0])    ]
+	 *   |1 4 1     | |D[1]  |   |3(x[2] - x[0])    |
+	 *   |  ......  | | .    | = |      .           |
+	 *   |     1 4 1| | .    |   |3(x[n-1] - x[n-3])|
+	 *   [       1 2] [D[n-1]]   [3(x[n-1] - x[n-2])]
+	 * by elimination to upper triangular and back substitution. */
+	private void solveOpen(float[] x, float[] D, int n) {
+		float[] gamma = fV, delta = fZ;
+		int last = n - 1;
+		gamma[0] = 1.0f / 2.0f;
+		for(int i = 1; i < last; i++)
+			gamma[i] = 1 / (4 - gamma[i - 1]);
+		gamma[last] = 1 / (2 - gamma[last - 1]);
+
+		delta[0] = 3 * (x[1] - x[0]) * gamma[0];
+		for(int i = 1; i < last; i++)
+			delta[i] = (3 * (x[i + 1] - x[i - 1]) - delta[i - 1]) * gamma[i];
+		delta[last] = (3 * (x[last] - x[last - 1]) - delta[last - 1]) * gamma[last];
+
+		D[last] = delta[last];
+		for(int i = last - 1; i >= 0; i--)
+			D[i] = delta[i] - gamma[i] * D[i + 1];
+	}
+
+	/* Derivatives D[0..n-1] of the closed spline through x[0..n-1]:
+	 *   [4 1      1] [D[0]  ]   [3(x[1] - x[n-1])  ]
+	 *   |1 4 1     | |D[1]  |   |3(x[2] - x[0])    |
+	 *   |  ......  | | .    | = |      .           |
+	 *   |     1 4 1| | .    |   |3(x[n-1] - x[n-3])|
+	 *   [1      1 4] [D[n-1]]   [3(x[0] - x[n-2])  ]
+	 * by LU decomposition and back substitution. */
+	private void solveClosed(float[] x, float[] D, int n) {
+		float[] v = fV, w = fW, y = fZ;
+		int last = n - 1;
+		float z, F, G, H;
+		w[1] = v[1] = z = 1.0f / 4.0f;
+		y[0] = z * 3 * (x[1] - x[last]);
+		H = 4;
+		F = 3 * (x[0] - x[last - 1]);
+		G = 1;
+		for(int k = 1; k < last; k++) {
+			v[k + 1] = z = 1 / (4 - v[k]);
+			w[k + 1] = -z * w[k];
+			y[k] = z * (3 * (x[k + 1] - x[k - 1]) - y[k - 1]);
+			H = H - G * w[k];
+			F = F - G * y[k - 1];
+			G = -v[k] * G;
+		}
+		H = H - (G + 1) * (v[last] + w[last]);
+		y[last] = F - (G + 1) * y[last - 1];
+
+		D[last] = y[last] / H;
+		/* Spath has this one wrong */
+		D[last - 1] = y[last - 1] - (v[last] + w[last]) * D[last];
+		for(int k = last - 2; k >= 0; k--)
+			D[k] = y[k] - v[k + 1] * D[k + 1] - w[k + 1] * D[last];
+	}
+
+	private void ensureKnots(int n) {
+		if(fX.length >= n)
+			return;
+
+		int size = Math.max(n, fX.length * 2);
+		fX = new float[size];
+		fY = new float[size];
+		fDx = new float[size];
+		fDy = new float[size];
+		fV = new float[size];
+		fW = new float[size];
+		fZ = new float[size];
+	}
+
+	private void ensurePolyline(int vertices) {
+		if(fPolyline.length >= 2 * vertices)
+			return;
+
+		float[] polyline = new float[Math.max(2 * vertices, fPolyline.length * 2)];
+		System.arraycopy(fPolyline, 0, polyline, 0, fPolyline.length);
+		fPolyline = polyline;
+	}
+}
@@ -8,98 +8,248 @@
  * 94704.  Attention:  Intel License Inquiry.
  */
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Class holding all data received from a mote.
+ *
+ * A node is written by one thread at a time (Data serializes the base
+ * stations' updates of a mote) and read by any number of others without
+ * locking, seqlock-style: the writer makes
+ * seq odd while it changes the node and even again when it is done, and a
+ * reader retries whenever seq was odd or changed under it. Everything a
+ * reader looks at is volatile (samples' and missing's elements through the
+ * atomic arrays), so a reader that sees part of an update also sees the seq
+ * change that came before it.
  */
-class Node {
-	/* Data is hold in an array whose size is a multiple of INCREMENT, and
-		 INCREMENT itself must be a multiple of Constant.NREADINGS. This
-		 simplifies handling the extension and clipping of old data
-		 (see setEnd) */
-	final static int INCREMENT = 100 * Constants.NREADINGS;
-	final static int MAX_SIZE = 100 * INCREMENT; // Must be multiple of INCREMENT
+class Node extends SampleHistory {
+	/* The node keeps the last CAPACITY samples in a circular buffer: sample
+		 x lives in slot x % CAPACITY, so appending and looking up a sample
+		 never moves the others */
+	final static int CAPACITY = 10000 * Constants.NREADINGS;
+
+	/* Sizes of the blocks summarized at each level of the pyramid (see
+		 summaries). Each divides CAPACITY, so the slots of an aligned block
+		 of samples are contiguous. */
+	final static int FANOUT = 10;
+	final static int[] BLOCK = { 10, 100, 1000, 10000 };
 
 	/* The mote's identifier */
-	int id;
+	final int id;
+
+	/* Odd while the writer is updating the node */
+	private volatile int seq;
 
-	/* Data received from the mote. data[0] is the dataStart'th sample
-		 Indexes 0 through dataEnd - dataStart - 1 hold data.
-		 Samples are 16-bit unsigned numbers, -1 indicates missing data. */
-	int[] data;
-	int dataStart, dataEnd;
+	/* Data received from the mote: samples dataStart through dataEnd - 1,
+		 with dataEnd - dataStart <= CAPACITY. Samples are 16-bit unsigned
+		 numbers, packed two to an int (slot 2i in the low half of samples[i],
+		 slot 2i + 1 in the high half). A slot's bit in missing is set if the
+		 sample was never received. Both are allocated on the first update. */
+	private volatile AtomicIntegerArray samples;
+	private volatile AtomicLongArray missing;
+	/* A pyramid of the samples' smallest and largest values, for getRange:
+		 entry i of level k summarizes slots i * BLOCK[k] through
+		 (i + 1) * BLOCK[k] - 1, the smallest in its low half and the largest
+		 in its high half (so the low half is larger if all of them are
+		 missing). Level 0 is worked out from the slots, and each level above
+		 from FANOUT entries of the one below, whenever any of them change. */
+	private volatile AtomicIntegerArray[] summaries;
+	private volatile int dataStart, dataEnd;
 
 	/* last synchronized sampling time - Farley */
-	long lastTimestamp = -1;
-	boolean synced = false;
+	private volatile long lastTimestamp = -1;
+	private volatile boolean synced = false;
 
 	Node(int _id) {
 		id = _id;
 	}
 
-	/* Update data to hold received samples newDataIndex .. newEnd.
+	/* Update the window to hold received samples newDataIndex .. newEnd.
 		 If we receive data with a lower index, we discard newer data
 		 (we assume the mote rebooted). */
 	private void setEnd(int newDataIndex, int newEnd) {
-		if (newDataIndex < dataStart || data == null) {
+		if (samples == null) {
+			samples = new AtomicIntegerArray((CAPACITY + 1) / 2);
+			missing = new AtomicLongArray((CAPACITY + 63) / 64);
+			AtomicIntegerArray[] levels = new AtomicIntegerArray[BLOCK.length];
+			for (int k = 0; k < levels.length; k++) {
+				levels[k] = new AtomicIntegerArray(CAPACITY / BLOCK[k]);
+			}
+			summaries = levels;
+			dataStart = dataEnd = newDataIndex;
+		}
+		if (newDataIndex < dataStart) {
 			/* New data is before the start of what we have. Just throw it
 				 all away and start again */
-			dataStart = newDataIndex;
-			data = new int[INCREMENT];
+			dataStart = dataEnd = newDataIndex;
 		}
-		if (newEnd > dataStart + data.length) {
-			/* Try extending first */
-			if (data.length < MAX_SIZE) {
-				int newLength = (newEnd - dataStart + INCREMENT - 1) / INCREMENT * INCREMENT;
-				if (newLength >= MAX_SIZE) {
-					newLength = MAX_SIZE;
-				}
-
-				int[] newData = new int[newLength];
-				System.arraycopy(data, 0, newData, 0, data.length);
-				data = newData;
-
-			}
-			if (newEnd > dataStart + data.length) {
-				/* Still doesn't fit. Squish.
-					 We assume INCREMENT >= (newEnd - newDataIndex), and ensure
-					 that dataStart + data.length - INCREMENT = newDataIndex */
-				int newStart = newDataIndex + INCREMENT - data.length;
-
-				if (dataStart + data.length > newStart) {
-					System.arraycopy(data, newStart - dataStart, data, 0, data.length - (newStart - dataStart));
-				}
-				dataStart = newStart;
-			}
+		if (newEnd - dataStart > CAPACITY) {
+			/* Slide the window; the oldest slots are reused */
+			dataStart = newEnd - CAPACITY;
 		}
 		/* Mark any missing data as invalid */
-		for (int i = dataEnd < dataStart ? dataStart : dataEnd;
-				i < newDataIndex; i++) {
-			data[i - dataStart] = -1;
-				}
+		int gap = dataEnd < dataStart ? dataStart : dataEnd;
+		for (int i = gap; i < newDataIndex; i++) {
+			setMissing(slot(i), true);
+		}
+		summarize(gap, newDataIndex);
 
 		/* If we receive a count less than the old count, we assume the old
 			 data is invalid */
 		dataEnd = newEnd;
 	}
 
-	/* Data received containing NREADINGS samples from messageId * NREADINGS onwards */
+	private static int slot(int x) {
+		return x % CAPACITY;
+	}
+
+	/* Return the value in slot, or -1 if it is missing */
+	private int readSlot(int slot) {
+		if ((missing.get(slot >> 6) & 1L << slot) != 0) {
+			return -1;
+		}
+		return samples.get(slot >> 1) >>> ((slot & 1) << 4) & 0xFFFF;
+	}
+
+	/* Bring the summaries of the blocks holding samples from .. to - 1 up to
+		 date, from the bottom level up */
+	private void summarize(int from, int to) {
+		if (from >= to) {
+			return;
+		}
+		for (int k = 0; k < BLOCK.length; k++) {
+			AtomicIntegerArray level = summaries[k];
+			int size = BLOCK[k];
+			for (int b = from / size; b <= (to - 1) / size; b++) {
+				int first = slot(b * size);
+				int min = 0xFFFF, max = 0;
+				if (k == 0) {
+					for (int i = first; i < first + size; i++) {
+						int value = readSlot(i);
+						if (value >= 0) {
+							min = Math.min(min, value);
+							max = Math.max(max, value);
+						}
+					}
+				} else {
+					AtomicIntegerArray below = summaries[k - 1];
+					int i0 = first / BLOCK[k - 1];
+					for (int i = i0; i < i0 + FANOUT; i++) {
+						int summary = below.get(i);
+						min = Math.min(min, summary & 0xFFFF);
+						max = Math.max(max, summary >>> 16);
+					}
+				}
+				level.lazySet(first / size, max << 16 | min);
+			}
+		}
+	}
+
+	private void setSample(int slot, int value) {
+		int i = slot >> 1, shift = (slot & 1) << 4;
+		samples.lazySet(i, samples.get(i) & ~(0xFFFF << shift) | (value & 0xFFFF) << shift);
+	}
+
+	private void setMissing(int slot, boolean isMissing) {
+		int i = slot >> 6;
+		long bit = 1L << slot;
+		long bits = missing.get(i);
+		missing.lazySet(i, isMissing ? bits | bit : bits & ~bit);
+	}
+
+	/* Data received containing NREADINGS samples from messageId * NREADINGS onwards.
+		 Only called from one thread at a time. */
 	void update(int messageId, int[] readings, long timestamp, boolean sync) {
-		int start = messageId * Constants.NREADINGS;
-		setEnd(start, start + Constants.NREADINGS);
-		for (int i = 0; i < readings.length; i++) {
-			data[start - dataStart + i] = readings[i];
+		seq++;
+		try {
+			int start = messageId * Constants.NREADINGS;
+			if (isLate(messageId, timestamp, dataEnd / Constants.NREADINGS, lastTimestamp)) {
+				if (start < dataStart) {
+					return;
+				}
+				for (int i = 0; i < readings.length; i++) {
+					int slot = slot(start + i);
+					setSample(slot, readings[i]);
+					setMissing(slot, false);
+				}
+				summarize(start, start + readings.length);
+				return;
+			}
+			setEnd(start, start + Constants.NREADINGS);
+			for (int i = 0; i < readings.length; i++) {
+				int slot = slot(start + i);
+				setSample(slot, readings[i]);
+				setMissing(slot, false);
+			}
+			summarize(start, start + readings.length);
+			// record the last sampling timestamp - Farley
+			lastTimestamp = timestamp;
+			synced = sync;
+		} finally {
+			seq++;
 		}
-		// record the last sampling timestamp - Farley
-		lastTimestamp = timestamp;
-		synced = sync;
 	}
 
 	/* Return value of sample x, or -1 for missing data */
 	int getData(int x) {
-		if (x < dataStart || x >= dataEnd) {
-			return -1;
-		} else {
-			return data[x - dataStart];
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				int value = -1;
+				if (x >= dataStart && x < dataEnd) {
+					value = readSlot(slot(x));
+				}
+				if (seq == s) {
+					return value;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/* Find the smallest and largest of samples from .. to - 1 from the
+		 largest whole blocks of the pyramid that fit, and the samples left
+		 over at either end: at most 2 * (FANOUT - 1) reads per level, however
+		 many samples there are */
+	boolean getRange(int from, int to, int[] range) {
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				int min = 0xFFFF, max = -1;
+				int x = Math.max(from, dataStart), end = Math.min(to, dataEnd);
+				while (x < end) {
+					int k = -1;
+					while (k + 1 < BLOCK.length && x % BLOCK[k + 1] == 0
+							&& end - x >= BLOCK[k + 1]) {
+						k++;
+					}
+					if (k < 0) {
+						int value = readSlot(slot(x));
+						if (value >= 0) {
+							min = Math.min(min, value);
+							max = Math.max(max, value);
+						}
+						x++;
+					} else {
+						int summary = summaries[k].get(slot(x) / BLOCK[k]);
+						if ((summary & 0xFFFF) <= summary >>> 16) {
+							min = Math.min(min, summary & 0xFFFF);
+							max = Math.max(max, summary >>> 16);
+						}
+						x += BLOCK[k];
+					}
+				}
+				if (seq == s) {
+					if (max < 0) {
+						return false;
+					}
+					range[0] = min;
+					range[1] = max;
+					return true;
+				}
+			}
+			Thread.yield();
 		}
 	}
 
@@ -110,10 +260,55 @@ class Node {
 
 	/* Return number of intervals before the last sampling timestamp - Farley */
 	int getDataOffsetToLastSample(int x) {
-		if (x < dataStart || x >= dataEnd) {
-			return -1;
-		} else {
-			return maxX() - x;
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				int start = dataStart, end = dataEnd;
+				int offset = x < start || x >= end ? -1 : end - 1 - x;
+				if (seq == s) {
+					return offset;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/* Return the timestamp of sample x, derived from the last sampling
+		 timestamp and the sampling period */
+	long getDataTimestamp(int x, int interval) {
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				int start = dataStart, end = dataEnd;
+				long timestamp = x < start || x >= end ? -1 : lastTimestamp - (long)(end - 1 - x) * interval;
+				if (seq == s) {
+					return timestamp;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	int findData(long timestamp, int interval) {
+		while (true) {
+			int s = seq;
+			if ((s & 1) == 0) {
+				int start = dataStart, end = dataEnd;
+				long last = lastTimestamp;
+				int x = -1;
+				if (end > start && timestamp >= last) {
+					x = end - 1;
+				} else if (end > start && interval > 0) {
+					long back = (last - timestamp + interval - 1) / interval;
+					if (back <= end - 1 - start) {
+						x = end - 1 - (int)back;
+					}
+				}
+				if (seq == s) {
+					return x;
+				}
+			}
+			Thread.yield();
 		}
 	}
 
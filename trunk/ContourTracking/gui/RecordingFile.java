@@ -0,0 +1,193 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/* Random access to the frames of a recording (see RecordingFormat).
+
+   The file is memory-mapped, so opening it only reads the header and the
+   frame index, and the heap holds the index (two longs per frame) rather
+   than the snapshots. Frames are decoded on demand: going to the next frame
+   decodes just that frame, any other frame is reached from the keyframe at
+   or before it. The index comes from the end of the file, or is rebuilt by
+   walking the frame headers if the recording was not closed properly.
+
+   Files are mapped in one piece, so recordings are limited to 2 GB. */
+class RecordingFile {
+	private RandomAccessFile fFile;
+	private ByteBuffer fMap;
+	private ByteBuffer fHeader;
+
+	/* Frame index: file offset of each frame << 1 | keyframe, and timestamp */
+	private long[] fOffsets;
+	private long[] fTimestamps;
+	private int fFrames;
+
+	/* The decoder's state is that of frame fDecodedFrame, -1 if none */
+	private FrameDecoder fDecoder;
+	private int fDecodedFrame = -1;
+	private ContourTracking.Snapshot fDecodedSnapshot;
+
+	RecordingFile(String filename) throws IOException {
+		fFile = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = fFile.getChannel();
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Recording too large");
+			fMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(fMap.limit() < 10)
+				throw new IOException("Empty recording");
+			RecordingFormat.checkHeader(fMap.getInt(0), fMap.getShort(4) & 0xFFFF);
+			fHeader = payload(6);
+			fDecoder = new FrameDecoder(fHeader.duplicate());
+			if(!readIndex())
+				buildIndex(6 + 4 + fHeader.remaining());
+		} catch(IOException e) {
+			fFile.close();
+			throw e;
+		}
+	}
+
+	int getFrameCount() {
+		return fFrames;
+	}
+
+	/* The latest sample timestamp of frame, or of the frames before it if
+	   that is later (see RecordingFormat) */
+	long getTimestamp(int frame) {
+		return fTimestamps[frame];
+	}
+
+	boolean isKeyframe(int frame) {
+		return (fOffsets[frame] & 1) != 0;
+	}
+
+	/* Return the last frame whose timestamp is at or before timestamp, or
+	   -1 if there is none. The index's timestamps never decrease (see
+	   addFrame). */
+	int findFrame(long timestamp) {
+		int low = 0, high = fFrames - 1, found = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(fTimestamps[mid] <= timestamp) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/* Decode frame */
+	synchronized ContourTracking.Snapshot getSnapshot(int frame) throws IOException {
+		if(frame < 0 || frame >= fFrames)
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + fFrames);
+		if(frame == fDecodedFrame)
+			return fDecodedSnapshot;
+
+		/* Carry on from the last decoded frame, or start over from a keyframe
+		   if that is closer */
+		int from = fDecodedFrame + 1;
+		if(frame < from || frame - from >= fDecoder.getKeyframeInterval()) {
+			from = frame;
+			while(from > 0 && !isKeyframe(from))
+				from--;
+		}
+		fDecodedFrame = -1;
+		fDecodedSnapshot = null;
+		for(; from < frame; from++)
+			fDecoder.skip(payload((fOffsets[from] >>> 1) + 1));
+		fDecodedSnapshot = fDecoder.decode(payload((fOffsets[frame] >>> 1) + 1));
+		fDecodedFrame = frame;
+		return fDecodedSnapshot;
+	}
+
+	void close() throws IOException {
+		fMap = null;
+		fDecodedSnapshot = null;
+		fFile.close();
+	}
+
+	/* The payload following the length at offset */
+	private ByteBuffer payload(long offset) throws IOException {
+		int pos = (int)offset;
+		if(pos + 4 > fMap.limit())
+			throw new IOException("Corrupt recording: record past the end");
+		int length = fMap.getInt(pos);
+		if(length < 0 || pos + 4 + length > fMap.limit())
+			throw new IOException("Corrupt recording: record past the end");
+		ByteBuffer payload = fMap.duplicate();
+		payload.position(pos + 4);
+		payload.limit(pos + 4 + length);
+		return payload.slice();
+	}
+
+	private void allocateIndex(int frames) {
+		fOffsets = new long[Math.max(frames, 16)];
+		fTimestamps = new long[fOffsets.length];
+		fFrames = 0;
+	}
+
+	/* Index a frame. A timestamp earlier than the previous frame's is raised
+	   to it, as RecordingWriter does, so that findFrame's search holds even
+	   for indexes written without that rule or rebuilt from the frames. */
+	private void addFrame(long offset, boolean keyframe, long timestamp) {
+		if(fFrames > 0 && timestamp < fTimestamps[fFrames - 1])
+			timestamp = fTimestamps[fFrames - 1];
+		if(fFrames == fOffsets.length) {
+			fOffsets = Arrays.copyOf(fOffsets, fFrames * 2);
+			fTimestamps = Arrays.copyOf(fTimestamps, fFrames * 2);
+		}
+		fOffsets[fFrames] = offset << 1 | (keyframe ? 1 : 0);
+		fTimestamps[fFrames] = timestamp;
+		fFrames++;
+	}
+
+	/* Read the index at the end of the file. Returns false if there is none. */
+	private boolean readIndex() throws IOException {
+		int end = fMap.limit();
+		if(end < 12 || fMap.getInt(end - 4) != RecordingFormat.INDEX_MAGIC)
+			return false;
+
+		long indexOffset = fMap.getLong(end - 12);
+		if(indexOffset < 0 || indexOffset >= end - 12 || fMap.get((int)indexOffset) != RecordingFormat.INDEX)
+			return false;
+
+		ByteBuffer index = payload(indexOffset + 1);
+		try {
+			int frames = RecordingFormat.readInt(index);
+			// a frame takes at least a record header
+			allocateIndex(Math.min(frames, end / RecordingFormat.RECORD_HEADER));
+			long offset = 0, timestamp = 0;
+			for(int i = 0; i < frames; i++) {
+				long entry = RecordingFormat.readVarint(index);
+				offset += entry >>> 1;
+				timestamp += RecordingFormat.readSignedVarint(index);
+				if(offset >= indexOffset)
+					throw new IOException("Corrupt recording: frame past the index");
+				addFrame(offset, (entry & 1) != 0, timestamp);
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Corrupt recording: index too short");
+		}
+		return true;
+	}
+
+	/* Walk the frame headers from offset, dropping a truncated last frame */
+	private void buildIndex(long offset) {
+		allocateIndex(0);
+		int end = fMap.limit();
+		int pos = (int)offset;
+		while(pos + RecordingFormat.RECORD_HEADER + 9 <= end && fMap.get(pos) == RecordingFormat.FRAME) {
+			int length = fMap.getInt(pos + 1);
+			if(length < 9 || pos + RecordingFormat.RECORD_HEADER + length > end)
+				break;
+
+			int flags = fMap.get(pos + RecordingFormat.RECORD_HEADER);
+			long timestamp = fMap.getLong(pos + RecordingFormat.RECORD_HEADER + 1);
+			addFrame(pos, (flags & RecordingFormat.KEYFRAME) != 0, timestamp);
+			pos += RecordingFormat.RECORD_HEADER + length;
+		}
+	}
+}
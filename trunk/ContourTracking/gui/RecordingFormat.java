@@ -0,0 +1,163 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/* The .ect recording format.
+
+   A recording is a header followed by one frame per tracked snapshot. All
+   numbers are big-endian; "varint" is an unsigned LEB128 integer, "svarint"
+   a zigzag-encoded signed one.
+
+   header   := MAGIC (int) VERSION (short) length (int) header payload
+   payload  := keyframe interval (varint) threshold (varint) geometry
+   geometry := width (varint) height (varint) motes (varint)
+               motes x { grid index - previous grid index (varint) id (varint) }
+   frame    := FRAME (byte) length (int) frame payload
+   payload  := flags (byte) timestamp (long)
+               [threshold (varint)]               if THRESHOLD
+               [geometry]                         if GEOMETRY
+               motes x sample delta (svarint)
+               motes x timestamp delta (svarint)
+               above-threshold bitmask, one bit per mote ((motes + 7) / 8 bytes)
+               blobs (varint) blobs x blob id (varint)
+               [event flags (byte) [direction (byte)]] if EVENT
+               blob events (varint) blob events x {
+                   type (byte) blob id (varint) related (varint) related x id (varint)
+                   dx dy vx vy (float) area delta (svarint) }
+
+   Per-mote values are listed in grid index order, skipping empty cells. In a
+   keyframe, sample deltas are from 0 and timestamp deltas from the frame's
+   timestamp (the snapshot's latest sample timestamp); in other frames both
+   are from the same mote in the previous frame. There is a keyframe every
+   keyframe interval frames and whenever the geometry changes. A keyframe
+   always carries the threshold and the geometry, so that decoding can start
+   there without going through the frames before it. Blob ids are listed in
+   the order of each blob's first grid index, which is also the order
+   BlobLabeller numbers them in.
+
+   A recording that was closed properly ends with an index of its frames:
+
+   index    := INDEX (byte) length (int) index payload
+               index offset (long) INDEX_MAGIC (int)
+   payload  := frames (varint) frames x {
+                   offset - previous offset << 1 | keyframe (varint)
+                   timestamp - previous timestamp (svarint) }
+
+   where offset is the file offset of the frame's FRAME byte. The index is
+   found from the end of the file; a recording without one (e.g. after a
+   crash) is indexed by walking the frame headers instead. A frame is only
+   complete once its whole payload is written, so a reader drops a truncated
+   last frame and keeps the rest.
+
+   Frames are looked up by timestamp with a binary search, so the index's
+   timestamps never decrease. A frame's own timestamp can be earlier than the
+   one before it, when the tracker's epochs started over after a mote
+   rebooted or its clock jumped (see EpochAligner). Such a frame is indexed
+   at the previous frame's index timestamp instead. A reader applies the
+   same rule to every index it loads or rebuilds, so recordings written
+   before the rule still seek correctly. */
+class RecordingFormat {
+	static final int MAGIC = 0x45435432; // "ECT2"
+	static final int VERSION = 1;
+	static final int KEYFRAME_INTERVAL = 64;
+	static final int FRAME = 'F';
+	static final int INDEX = 'I';
+	static final int INDEX_MAGIC = 0x45435449; // "ECTI"
+	/* Bytes before a frame's or the index's payload: tag and length */
+	static final int RECORD_HEADER = 5;
+
+	/* Frame flags */
+	static final int KEYFRAME = 1;
+	static final int THRESHOLD = 2;
+	static final int GEOMETRY = 4;
+	static final int EVENT = 8;
+
+	/* Event flags */
+	static final int FORM = 1;
+	static final int VANISH = 2;
+	static final int MERGE = 4;
+	static final int SPLIT = 8;
+	static final int EXPAND = 16;
+	static final int SHRINK = 32;
+	static final int MOVE = 64;
+
+	/* First bytes of a file written with ObjectOutputStream, i.e. a recording
+	   from before this format (see LegacyRecordingConverter) */
+	static final int SERIALIZED_MAGIC = 0xACED;
+
+	/* Check the first bytes of a recording */
+	static void checkHeader(int magic, int version) throws IOException {
+		if(magic >>> 16 == SERIALIZED_MAGIC)
+			throw new IOException("Recording in the old serialized format, convert it with LegacyRecordingConverter");
+		if(magic != MAGIC)
+			throw new IOException("Not a recording");
+		if(version > VERSION)
+			throw new IOException("Unsupported recording version " + version);
+	}
+
+	static void writeVarint(DataOutput out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	static void writeSignedVarint(DataOutput out, long value) throws IOException {
+		writeVarint(out, (value << 1) ^ (value >> 63));
+	}
+
+	static long readVarint(ByteBuffer in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static int readInt(ByteBuffer in) throws IOException {
+		long value = readVarint(in);
+		if(value > Integer.MAX_VALUE)
+			throw new IOException("Value out of range: " + value);
+		return (int)value;
+	}
+
+	static long readSignedVarint(ByteBuffer in) throws IOException {
+		long value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static void writeGeometry(DataOutput out, GridGeometry geometry) throws IOException {
+		writeVarint(out, geometry.getWidth());
+		writeVarint(out, geometry.getHeight());
+		writeVarint(out, geometry.getMoteCount());
+		int prev = 0;
+		for(int idx = 0; idx < geometry.size(); idx++) {
+			int id = geometry.getMoteId(idx);
+			if(id == -1)
+				continue;
+
+			writeVarint(out, idx - prev);
+			writeVarint(out, id);
+			prev = idx;
+		}
+	}
+
+	static GridGeometry readGeometry(ByteBuffer in) throws IOException {
+		int width = readInt(in);
+		int height = readInt(in);
+		int motes = readInt(in);
+		try {
+			GridGeometry geometry = new GridGeometry(width, height);
+			for(int i = 0, idx = 0; i < motes; i++) {
+				idx += readInt(in);
+				geometry.place(readInt(in), idx / width, idx % width);
+			}
+			return geometry;
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Invalid geometry: " + e.getMessage());
+		}
+	}
+}
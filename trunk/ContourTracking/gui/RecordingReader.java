@@ -0,0 +1,55 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/* Reads back the snapshots of a recording written by RecordingWriter, one
+   after the other. See RecordingFile for random access. */
+class RecordingReader {
+	private DataInputStream fIn;
+	private byte[] fPayload = new byte[0];
+	private FrameDecoder fDecoder;
+
+	RecordingReader(InputStream in) throws IOException {
+		fIn = new DataInputStream(in);
+		int magic;
+		try {
+			magic = fIn.readInt();
+		} catch(EOFException e) {
+			throw new IOException("Empty recording");
+		}
+		RecordingFormat.checkHeader(magic, fIn.readUnsignedShort());
+
+		int length = fIn.readInt();
+		fDecoder = new FrameDecoder(ByteBuffer.wrap(readPayload(length), 0, length));
+	}
+
+	/* Return the next snapshot, or null at the end of the recording */
+	ContourTracking.Snapshot read() throws IOException {
+		int length;
+		try {
+			int tag = fIn.read();
+			if(tag == -1 || tag == RecordingFormat.INDEX)
+				return null;
+			if(tag != RecordingFormat.FRAME)
+				throw new IOException("Corrupt recording: unexpected record " + tag);
+			length = fIn.readInt();
+			readPayload(length);
+		} catch(EOFException e) {
+			// a truncated last frame
+			return null;
+		}
+		return fDecoder.decode(ByteBuffer.wrap(fPayload, 0, length));
+	}
+
+	void close() throws IOException {
+		fIn.close();
+	}
+
+	private byte[] readPayload(int length) throws IOException {
+		if(length < 0)
+			throw new IOException("Corrupt recording: negative length");
+		if(fPayload.length < length)
+			fPayload = new byte[length];
+		fIn.readFully(fPayload, 0, length);
+		return fPayload;
+	}
+}
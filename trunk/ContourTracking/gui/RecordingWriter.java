@@ -0,0 +1,215 @@
+import java.io.*;
+import java.util.*;
+
+/* Writes snapshots to a recording in the format described in
+   RecordingFormat. The header is written with the first snapshot and the
+   frame index when the writer is closed. */
+class RecordingWriter {
+	private DataOutputStream fOut;
+	private ByteArrayOutputStream fBuffer = new ByteArrayOutputStream();
+	private DataOutputStream fFrame = new DataOutputStream(fBuffer);
+
+	/* The previous frame, which the next one is delta-encoded against */
+	private GridGeometry fGeometry;
+	private int fThreshold;
+	private int[] fSamples;
+	private long[] fTimestamps;
+	private int fFrames;
+
+	/* Frame index: file offset of each frame << 1 | keyframe, and timestamp */
+	private long fOffset;
+	private long[] fOffsets = new long[64];
+	private long[] fFrameTimestamps = new long[64];
+
+	/* Labels already listed in the current frame */
+	private int[] fSeen = new int[0];
+
+	RecordingWriter(OutputStream out) {
+		fOut = new DataOutputStream(out);
+	}
+
+	void write(ContourTracking.Snapshot snapshot) throws IOException {
+		GridGeometry geometry = snapshot.getGeometry();
+		if(fGeometry == null)
+			writeHeader(snapshot);
+
+		int flags = 0;
+		if(geometry != fGeometry) {
+			if(!geometry.sameLayout(fGeometry))
+				flags |= RecordingFormat.KEYFRAME;
+			setGeometry(geometry);
+		}
+		if(fFrames % RecordingFormat.KEYFRAME_INTERVAL == 0)
+			flags |= RecordingFormat.KEYFRAME;
+		// keyframes are self-contained
+		if((flags & RecordingFormat.KEYFRAME) != 0)
+			flags |= RecordingFormat.GEOMETRY | RecordingFormat.THRESHOLD;
+		if(snapshot.getThreshold() != fThreshold)
+			flags |= RecordingFormat.THRESHOLD;
+		if(snapshot.getEvent() != null)
+			flags |= RecordingFormat.EVENT;
+
+		long timestamp = snapshot.getLatestSampleTimestamp();
+		boolean keyframe = (flags & RecordingFormat.KEYFRAME) != 0;
+		fBuffer.reset();
+		fFrame.writeByte(flags);
+		fFrame.writeLong(timestamp);
+		if((flags & RecordingFormat.THRESHOLD) != 0) {
+			fThreshold = snapshot.getThreshold();
+			RecordingFormat.writeVarint(fFrame, fThreshold);
+		}
+		if((flags & RecordingFormat.GEOMETRY) != 0)
+			RecordingFormat.writeGeometry(fFrame, geometry);
+
+		int size = geometry.size();
+		for(int idx = 0; idx < size; idx++) {
+			if(geometry.getMoteId(idx) == -1)
+				continue;
+
+			int sample = snapshot.getSample(idx);
+			RecordingFormat.writeSignedVarint(fFrame, (long)sample - (keyframe ? 0 : fSamples[idx]));
+			fSamples[idx] = sample;
+		}
+		for(int idx = 0; idx < size; idx++) {
+			if(geometry.getMoteId(idx) == -1)
+				continue;
+
+			long sampleTimestamp = snapshot.getSampleTimestamp(idx);
+			RecordingFormat.writeSignedVarint(fFrame, sampleTimestamp - (keyframe ? timestamp : fTimestamps[idx]));
+			fTimestamps[idx] = sampleTimestamp;
+		}
+
+		int bits = 0, count = 0;
+		for(int idx = 0; idx < size; idx++) {
+			if(geometry.getMoteId(idx) == -1)
+				continue;
+
+			if(snapshot.isAboveThreshold(idx))
+				bits |= 1 << count;
+			if(++count == 8) {
+				fFrame.writeByte(bits);
+				bits = count = 0;
+			}
+		}
+		if(count > 0)
+			fFrame.writeByte(bits);
+
+		writeBlobIds(snapshot);
+		writeEvents(snapshot);
+
+		if(fFrames == fOffsets.length) {
+			fOffsets = Arrays.copyOf(fOffsets, fFrames * 2);
+			fFrameTimestamps = Arrays.copyOf(fFrameTimestamps, fFrames * 2);
+		}
+		fOffsets[fFrames] = fOffset << 1 | (keyframe ? 1 : 0);
+		// the index never goes back in time (see RecordingFormat)
+		fFrameTimestamps[fFrames] = fFrames > 0 ? Math.max(timestamp, fFrameTimestamps[fFrames - 1]) : timestamp;
+		writeRecord(RecordingFormat.FRAME);
+		fFrames++;
+	}
+
+	/* Write the record in fBuffer */
+	private void writeRecord(int tag) throws IOException {
+		fOut.writeByte(tag);
+		fOut.writeInt(fBuffer.size());
+		fBuffer.writeTo(fOut);
+		fOffset += RecordingFormat.RECORD_HEADER + fBuffer.size();
+	}
+
+	private void writeIndex() throws IOException {
+		fBuffer.reset();
+		RecordingFormat.writeVarint(fFrame, fFrames);
+		long prevOffset = 0, prevTimestamp = 0;
+		for(int i = 0; i < fFrames; i++) {
+			long offset = fOffsets[i] >>> 1;
+			RecordingFormat.writeVarint(fFrame, (offset - prevOffset) << 1 | (fOffsets[i] & 1));
+			RecordingFormat.writeSignedVarint(fFrame, fFrameTimestamps[i] - prevTimestamp);
+			prevOffset = offset;
+			prevTimestamp = fFrameTimestamps[i];
+		}
+		long indexOffset = fOffset;
+		writeRecord(RecordingFormat.INDEX);
+		fOut.writeLong(indexOffset);
+		fOut.writeInt(RecordingFormat.INDEX_MAGIC);
+	}
+
+	void flush() throws IOException {
+		fOut.flush();
+	}
+
+	void close() throws IOException {
+		try {
+			if(fGeometry != null)
+				writeIndex();
+		} finally {
+			fOut.close();
+		}
+	}
+
+	private void writeHeader(ContourTracking.Snapshot snapshot) throws IOException {
+		setGeometry(snapshot.getGeometry());
+		fThreshold = snapshot.getThreshold();
+
+		fBuffer.reset();
+		RecordingFormat.writeVarint(fFrame, RecordingFormat.KEYFRAME_INTERVAL);
+		RecordingFormat.writeVarint(fFrame, fThreshold);
+		RecordingFormat.writeGeometry(fFrame, fGeometry);
+		fOut.writeInt(RecordingFormat.MAGIC);
+		fOut.writeShort(RecordingFormat.VERSION);
+		fOut.writeInt(fBuffer.size());
+		fBuffer.writeTo(fOut);
+		fOffset = 4 + 2 + 4 + fBuffer.size(); // magic, version, length, payload
+	}
+
+	private void setGeometry(GridGeometry geometry) {
+		if(fGeometry == null || fGeometry.size() != geometry.size()) {
+			fSamples = new int[geometry.size()];
+			fTimestamps = new long[geometry.size()];
+			fSeen = new int[geometry.size() + 1];
+		}
+		fGeometry = geometry;
+	}
+
+	private void writeBlobIds(ContourTracking.Snapshot snapshot) throws IOException {
+		RecordingFormat.writeVarint(fFrame, snapshot.blobCount());
+		int stamp = fFrames + 1;
+		for(int idx = 0; idx < snapshot.size(); idx++) {
+			int label = snapshot.getLabel(idx);
+			if(label == 0 || fSeen[label] == stamp)
+				continue;
+
+			fSeen[label] = stamp;
+			RecordingFormat.writeVarint(fFrame, snapshot.getBlob(label).getId());
+		}
+	}
+
+	private void writeEvents(ContourTracking.Snapshot snapshot) throws IOException {
+		ContourTracking.Event event = snapshot.getEvent();
+		if(event != null) {
+			int flags = (event.FORM ? RecordingFormat.FORM : 0)
+				| (event.VANISH ? RecordingFormat.VANISH : 0)
+				| (event.MERGE ? RecordingFormat.MERGE : 0)
+				| (event.SPLIT ? RecordingFormat.SPLIT : 0)
+				| (event.EXPAND ? RecordingFormat.EXPAND : 0)
+				| (event.SHRINK ? RecordingFormat.SHRINK : 0)
+				| (event.MOVE ? RecordingFormat.MOVE : 0);
+			fFrame.writeByte(flags);
+			if(event.MOVE)
+				fFrame.writeByte(event.fDir.ordinal());
+		}
+
+		RecordingFormat.writeVarint(fFrame, snapshot.getBlobEvents().size());
+		for(ContourTracking.BlobEvent blobEvent: snapshot.getBlobEvents()) {
+			fFrame.writeByte(blobEvent.fType.ordinal());
+			RecordingFormat.writeVarint(fFrame, blobEvent.fBlobId);
+			RecordingFormat.writeVarint(fFrame, blobEvent.fRelatedIds.length);
+			for(int id: blobEvent.fRelatedIds)
+				RecordingFormat.writeVarint(fFrame, id);
+			fFrame.writeFloat((float)blobEvent.fDx);
+			fFrame.writeFloat((float)blobEvent.fDy);
+			fFrame.writeFloat((float)blobEvent.fVelocityX);
+			fFrame.writeFloat((float)blobEvent.fVelocityY);
+			RecordingFormat.writeSignedVarint(fFrame, blobEvent.fAreaDelta);
+		}
+	}
+}
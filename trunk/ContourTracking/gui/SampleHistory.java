@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+/* The samples received from one mote. Sample x is the (x % NREADINGS)'th
+   reading of message x / NREADINGS. update is only called from one thread at
+   a time; everything else may be called from any thread and does not lock.
+
+   Node keeps a bounded window on the heap; MappedSampleStore keeps the
+   whole history in memory-mapped files. */
+abstract class SampleHistory {
+	/* Messages remembered by isDuplicate */
+	static final int RECENT = 16;
+
+	/* Recently stored messages, by message id % RECENT */
+	private final int[] recentIds = new int[RECENT];
+	private final long[] recentTimestamps = new long[RECENT];
+
+	SampleHistory() {
+		Arrays.fill(recentIds, -1);
+	}
+
+	/* Return true if this message was already stored, i.e. heard through
+	   another base station, and remember it otherwise. Called by the writer
+	   before update. */
+	boolean isDuplicate(int messageId, long timestamp) {
+		int i = messageId % RECENT;
+		if(recentIds[i] == messageId && recentTimestamps[i] == timestamp)
+			return true;
+		recentIds[i] = messageId;
+		recentTimestamps[i] = timestamp;
+		return false;
+	}
+
+	/* Return true if message was overtaken by later ones, e.g. because it
+	   came through a slower base station: its count is below end, the count
+	   after the latest message, but it was also taken before the latest.
+	   A lower count with a later timestamp means the mote rebooted instead.
+	   A late message is filled in if the history still holds its place and
+	   dropped otherwise. */
+	static boolean isLate(int messageId, long timestamp, int end, long lastTimestamp) {
+		return messageId < end && timestamp < lastTimestamp;
+	}
+
+	/* Data received containing NREADINGS samples from messageId * NREADINGS
+	   onwards */
+	abstract void update(int messageId, int[] readings, long timestamp, boolean sync);
+
+	/* Return value of sample x, or -1 for missing data */
+	abstract int getData(int x);
+
+	/* Find the smallest and largest of samples from .. to - 1, ignoring
+	   missing data, and put them in range[0] and range[1]. Returns false if
+	   none of them is held. Graph draws a screen column's worth of samples
+	   at a time with it; this looks at each sample in turn, Node and
+	   MappedSampleStore keep the minima and maxima of blocks of samples so
+	   that they need not. */
+	boolean getRange(int from, int to, int[] range) {
+		int min = Integer.MAX_VALUE, max = -1;
+		for(int x = from; x < to; x++) {
+			int value = getData(x);
+			if(value < 0)
+				continue;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		if(max < 0)
+			return false;
+		range[0] = min;
+		range[1] = max;
+		return true;
+	}
+
+	/* Return number of intervals before the last sampling timestamp, or -1
+	   if sample x is not held */
+	abstract int getDataOffsetToLastSample(int x);
+
+	/* Return the timestamp of sample x, given the sampling period, or -1 if
+	   it is not held */
+	abstract long getDataTimestamp(int x, int interval);
+
+	/* Return the last sample taken at or before timestamp, or -1 if there
+	   is none */
+	abstract int findData(long timestamp, int interval);
+
+	abstract long getLastSamplingTimestamp();
+
+	/* Return number of last known sample */
+	abstract int maxX();
+
+	abstract boolean isSynced();
+}
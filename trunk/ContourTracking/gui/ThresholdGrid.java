@@ -0,0 +1,220 @@
+import java.util.*;
+
+/* The live above-threshold state of the mote grid, kept up to date
+   incrementally.
+
+   update() records each mote's latest sample and marks its grid index dirty
+   when the mote crosses the threshold. relabel() then re-labels only the
+   blobs touched by those flips: a blob that neither contains nor borders a
+   flipped mote cannot have changed, so only the bounding box of the flipped
+   motes and of the blobs around them is handed to the labeller. When nothing
+   crossed the threshold, relabel() returns at once.
+
+   Blob labels are kept in a label image indexed by grid index (0 for cells
+   not in a blob). Labels are recycled, so they never exceed the grid size. */
+class ThresholdGrid {
+	private GridGeometry fGeometry;
+	private int fThreshold;
+	private int[] fSamples;
+	private long[] fTimestamps;
+
+	private long[] fState; // above-threshold bit per grid index, as last updated
+	private long[] fMask;  // above-threshold bit per grid index, as last labelled
+	private long[] fDirty; // grid indexes updated to a new state since the last relabel
+	private boolean fChanged, fFresh;
+
+	private int[] fLabels;
+	private int fBlobCount;
+	/* Bounding box of each label */
+	private int[] fMinRow, fMaxRow, fMinCol, fMaxCol;
+	/* Recycled labels, and the next never used label */
+	private int[] fFreeLabels;
+	private int fFreeCount, fNextLabel = 1;
+
+	/* Scratch space for relabel() */
+	private int[] fFlips;
+	private int[] fNewLabels;
+	private int[] fStamps;
+	private int fStamp;
+	private long[] fWindow = new long[0];
+
+	ThresholdGrid(GridGeometry geometry, int threshold) {
+		int size = geometry.size();
+		int words = (size + 63) / 64;
+		fGeometry = geometry;
+		fThreshold = threshold;
+		fSamples = new int[size];
+		fTimestamps = new long[size];
+		Arrays.fill(fSamples, -1);
+		Arrays.fill(fTimestamps, -1);
+		fState = new long[words];
+		fMask = new long[words];
+		fDirty = new long[words];
+		fLabels = new int[size];
+		fMinRow = new int[size + 1];
+		fMaxRow = new int[size + 1];
+		fMinCol = new int[size + 1];
+		fMaxCol = new int[size + 1];
+		fFreeLabels = new int[size + 1];
+		fFlips = new int[size];
+		fNewLabels = new int[size];
+		fStamps = new int[size + 1];
+		/* The first relabel always reports a change, even on an empty grid */
+		fFresh = true;
+	}
+
+	GridGeometry getGeometry() {
+		return fGeometry;
+	}
+
+	int getThreshold() {
+		return fThreshold;
+	}
+
+	/* Record the latest sample of mote id */
+	void update(int id, int sample, long timestamp) {
+		int idx = fGeometry.getIndex(id);
+		if(idx == -1)
+			return;
+
+		fSamples[idx] = sample;
+		fTimestamps[idx] = timestamp;
+		setState(idx, sample >= 0 && sample >= fThreshold);
+	}
+
+	/* Change the threshold, re-evaluating every mote against it */
+	void setThreshold(int threshold) {
+		fThreshold = threshold;
+		for(int idx = 0; idx < fSamples.length; idx++)
+			setState(idx, fSamples[idx] >= 0 && fSamples[idx] >= threshold);
+	}
+
+	private void setState(int idx, boolean above) {
+		long bit = 1L << idx;
+		if(((fState[idx >>> 6] & bit) != 0) != above) {
+			fState[idx >>> 6] ^= bit;
+			fDirty[idx >>> 6] |= bit;
+			fChanged = true;
+		}
+	}
+
+	/* Bring the label image up to date with the motes' latest states.
+	   Returns false if the label image did not change. */
+	boolean relabel(BlobLabeller labeller) {
+		if(!fChanged && !fFresh)
+			return false;
+
+		boolean fresh = fFresh;
+		fChanged = fFresh = false;
+		final int width = fGeometry.getWidth();
+		int flips = 0;
+		for(int w = 0; w < fDirty.length; w++) {
+			long flipped = fDirty[w] & (fState[w] ^ fMask[w]);
+			fDirty[w] = 0;
+			while(flipped != 0) {
+				fFlips[flips++] = (w << 6) + Long.numberOfTrailingZeros(flipped);
+				flipped &= flipped - 1;
+			}
+			fMask[w] = fState[w];
+		}
+		if(flips == 0)
+			return fresh;
+
+		/* Collect the blobs containing or bordering a flipped mote, and the
+		   bounding box of everything that has to be re-labelled */
+		int minRow = Integer.MAX_VALUE, maxRow = -1, minCol = Integer.MAX_VALUE, maxCol = -1;
+		fStamp++;
+		for(int f = 0; f < flips; f++) {
+			int idx = fFlips[f];
+			int row = idx / width, col = idx % width;
+			minRow = Math.min(minRow, row);
+			maxRow = Math.max(maxRow, row);
+			minCol = Math.min(minCol, col);
+			maxCol = Math.max(maxCol, col);
+			for(int r = Math.max(0, row - 1); r <= Math.min(fGeometry.getHeight() - 1, row + 1); r++) {
+				for(int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+					int label = fLabels[r * width + c];
+					if(label == 0 || fStamps[label] == fStamp)
+						continue;
+
+					fStamps[label] = fStamp;
+					minRow = Math.min(minRow, fMinRow[label]);
+					maxRow = Math.max(maxRow, fMaxRow[label]);
+					minCol = Math.min(minCol, fMinCol[label]);
+					maxCol = Math.max(maxCol, fMaxCol[label]);
+					fFreeLabels[fFreeCount++] = label;
+					fBlobCount--;
+				}
+			}
+		}
+
+		/* Within the box, label the set motes that are either newly set or
+		   belonged to an affected blob. Other blobs in the box are unchanged. */
+		int windowWidth = maxCol - minCol + 1;
+		int windowHeight = maxRow - minRow + 1;
+		int words = (windowWidth * windowHeight + 63) / 64;
+		if(fWindow.length < words)
+			fWindow = new long[words];
+		else
+			Arrays.fill(fWindow, 0, words, 0);
+		for(int r = minRow, i = 0; r <= maxRow; r++) {
+			for(int c = minCol; c <= maxCol; c++, i++) {
+				int idx = r * width + c;
+				int label = fLabels[idx];
+				if(label != 0 && fStamps[label] != fStamp)
+					continue;
+
+				fLabels[idx] = 0;
+				if((fMask[idx >>> 6] & (1L << idx)) != 0)
+					fWindow[i >>> 6] |= 1L << i;
+			}
+		}
+
+		int count = labeller.label(fWindow, windowWidth, windowHeight);
+		for(int l = 0; l < count; l++) {
+			int label = fFreeCount > 0 ? fFreeLabels[--fFreeCount] : fNextLabel++;
+			fMinRow[label] = fMinCol[label] = Integer.MAX_VALUE;
+			fMaxRow[label] = fMaxCol[label] = -1;
+			fNewLabels[l] = label;
+		}
+		fBlobCount += count;
+		for(int r = minRow, i = 0; r <= maxRow; r++) {
+			for(int c = minCol; c <= maxCol; c++, i++) {
+				int local = labeller.getLabel(i);
+				if(local == 0)
+					continue;
+
+				int label = fNewLabels[local - 1];
+				fLabels[r * width + c] = label;
+				fMinRow[label] = Math.min(fMinRow[label], r);
+				fMaxRow[label] = Math.max(fMaxRow[label], r);
+				fMinCol[label] = Math.min(fMinCol[label], c);
+				fMaxCol[label] = Math.max(fMaxCol[label], c);
+			}
+		}
+		return true;
+	}
+
+	int getSample(int idx) {
+		return fSamples[idx];
+	}
+
+	long getSampleTimestamp(int idx) {
+		return fTimestamps[idx];
+	}
+
+	/* Label of grid index idx, 0 if it isn't in a blob. Labels are below
+	   getGeometry().size() + 1. */
+	int getLabel(int idx) {
+		return fLabels[idx];
+	}
+
+	int getBlobCount() {
+		return fBlobCount;
+	}
+
+	/* The above-threshold mask as of the last relabel */
+	long[] getMask() {
+		return fMask;
+	}
+}
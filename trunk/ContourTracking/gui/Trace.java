@@ -0,0 +1,95 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Diagnostic output, off unless asked for (-trace <level> on the command
+   line, or the Trace control of the GUI).
+
+   Output goes through channels, each of one level; a channel is on when
+   the current level is at least its own. Callers check isOn() before
+   building any message, so that with tracing off the tracker and the
+   painter do no formatting and no console I/O at all: a volatile read is
+   all it costs. With sampling set to n, a channel only passes one of every
+   n messages, which keeps high-rate channels readable and cheap. */
+class Trace {
+	enum Level {
+		OFF, DEBUG, VERBOSE
+	}
+
+	/* The tracker's snapshots as they change (see Snapshot.describe) */
+	static final Channel SNAPSHOTS = new Channel("snapshots", Level.DEBUG);
+	/* Control points of the contour splines, once per snapshot (see
+	   ContourGeometry) */
+	static final Channel SPLINES = new Channel("splines", Level.VERBOSE);
+
+	private static volatile Level fLevel = Level.OFF;
+	private static volatile int fSampling = 1;
+	private static PrintStream fOut = System.out;
+
+	static Level getLevel() {
+		return fLevel;
+	}
+
+	static void setLevel(Level level) {
+		fLevel = level;
+	}
+
+	static int getSampling() {
+		return fSampling;
+	}
+
+	/* Pass one of every sampling messages of each channel */
+	static void setSampling(int sampling) {
+		fSampling = Math.max(1, sampling);
+	}
+
+	/* Parse a -trace argument: a level, optionally followed by /n to set the
+	   sampling, e.g. "debug" or "verbose/100". Returns false if it makes no
+	   sense. */
+	static boolean configure(String arg) {
+		int slash = arg.indexOf('/');
+		try {
+			Level level = Level.valueOf((slash < 0 ? arg : arg.substring(0, slash)).toUpperCase());
+			int sampling = slash < 0 ? 1 : Integer.parseInt(arg.substring(slash + 1));
+			if(sampling < 1)
+				return false;
+			setLevel(level);
+			setSampling(sampling);
+			return true;
+		} catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	static class Channel {
+		private final String fName;
+		private final Level fLevel;
+		private final AtomicLong fCount = new AtomicLong();
+
+		Channel(String name, Level level) {
+			fName = name;
+			fLevel = level;
+		}
+
+		/* True if a message should be built and printed now. Counts towards
+		   the sampling, so call it once per message. */
+		boolean isOn() {
+			if(Trace.fLevel.compareTo(fLevel) < 0)
+				return false;
+			int sampling = fSampling;
+			return sampling == 1 || fCount.getAndIncrement() % sampling == 0;
+		}
+
+		/* Print text, which may span several lines, in one piece */
+		void print(String text) {
+			synchronized(fOut) {
+				fOut.print(text);
+				if(!text.endsWith("\n"))
+					fOut.println();
+			}
+		}
+
+		public String toString() {
+			return fName;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/* Micro-benchmarks of the tracking pipeline, to catch regressions as the
+   grids get bigger:
+
+     java TrackingBenchmark [options]   (or make bench)
+
+   Each benchmark runs once per grid size and blob count:
+
+     ingest   Data.update, per message
+     snapshot ThresholdGrid update and relabel, and the Snapshot built from
+              it, per epoch
+     detect   blob correspondence and events between two snapshots, per
+              snapshot
+     contours ContourGeometry, the contour splines MoteGridPainter draws,
+              per snapshot
+     paint    MoteGridPainter on an 800x600 image, per snapshot (a repaint:
+              the contours are built on the first)
+     write    RecordingWriter, per frame
+     read     RecordingReader, per frame
+
+   The input is FRAMES epochs of blobs (discs of above-threshold motes)
+   drifting across the grid, the same for every benchmark. Like JMH's
+   average time mode, each benchmark is warmed up, then timed over
+   ITERATIONS iterations; the mean time per operation and its standard
+   deviation over the iterations are printed and appended to the results
+   file, so that runs can be compared. */
+public class TrackingBenchmark {
+	static final int FRAMES = 32;
+	static final int ITERATIONS = 5;
+	static final int ABOVE = 800;
+	static final int BELOW = 200;
+
+	int fWarmup = 2000, fTime = 1000;
+	String fResults = "bench.csv";
+	List<String> fOnly = new ArrayList<String>();
+
+	/* Where the code under test may print (it does), and where we report */
+	private PrintStream fOut = System.out;
+	private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+		public void write(int b) {
+		}
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	/* Folds in the results of the benchmarks, so that none of them is
+	   optimized away */
+	int fSink;
+
+	/* FRAMES epochs of a grid with blobs drifting across it: per frame, the
+	   sample of each grid index (mote id index + 1) */
+	static class Scene {
+		GridGeometry fGeometry;
+		int fBlobs;
+		int[][] fSamples = new int[FRAMES][];
+
+		Scene(int width, int height, int blobs, long seed) {
+			Random random = new Random(seed);
+			int size = width * height;
+			fGeometry = new GridGeometry(width, height);
+			for(int i = 0; i < size; i++)
+				fGeometry.place(i + 1, i / width, i % width);
+			fBlobs = blobs;
+
+			/* Discs covering about a fifth of the grid between them, moving
+			   up to a mote per epoch and bouncing off the edges */
+			double radius = Math.max(1, Math.sqrt(size / 5.0 / Math.PI / Math.max(1, blobs)));
+			double[] x = new double[blobs], y = new double[blobs], vx = new double[blobs], vy = new double[blobs];
+			for(int b = 0; b < blobs; b++) {
+				x[b] = random.nextDouble() * width;
+				y[b] = random.nextDouble() * height;
+				vx[b] = random.nextDouble() * 2 - 1;
+				vy[b] = random.nextDouble() * 2 - 1;
+			}
+			for(int f = 0; f < FRAMES; f++) {
+				int[] samples = new int[size];
+				for(int i = 0; i < size; i++) {
+					samples[i] = BELOW;
+					for(int b = 0; b < blobs; b++) {
+						if(Math.hypot(i % width - x[b], i / width - y[b]) <= radius) {
+							samples[i] = ABOVE;
+							break;
+						}
+					}
+				}
+				fSamples[f] = samples;
+				for(int b = 0; b < blobs; b++) {
+					x[b] += vx[b];
+					y[b] += vy[b];
+					if(x[b] < 0 || x[b] > width - 1)
+						vx[b] = -vx[b];
+					if(y[b] < 0 || y[b] > height - 1)
+						vy[b] = -vy[b];
+				}
+			}
+		}
+
+		int size() {
+			return fGeometry.size();
+		}
+
+		/* The frames tracked, one snapshot each */
+		List<ContourTracking.Snapshot> snapshots() {
+			ThresholdGrid grid = new ThresholdGrid(fGeometry, Constants.DEFAULT_THRESHOLD);
+			BlobLabeller labeller = new BlobLabeller();
+			List<ContourTracking.Snapshot> snapshots = new ArrayList<ContourTracking.Snapshot>();
+			for(int f = 0; f < FRAMES; f++) {
+				for(int i = 0; i < size(); i++)
+					grid.update(i + 1, fSamples[f][i], (long)f * Constants.DEFAULT_INTERVAL);
+				grid.relabel(labeller);
+				snapshots.add(new ContourTracking.Snapshot(grid));
+			}
+			return snapshots;
+		}
+	}
+
+	/* A benchmark: set up for a scene, then run any number of times */
+	abstract class Benchmark {
+		final String fName;
+
+		Benchmark(String name) {
+			fName = name;
+		}
+
+		abstract void setup(Scene scene) throws IOException;
+
+		/* Run once and return the number of operations done */
+		abstract int run() throws IOException;
+
+		/* Drop whatever setup built */
+		void teardown() {
+		}
+	}
+
+	/* A tracker with no base station and a console for its user interface */
+	private ContourTracking newTracker(Scene scene) {
+		ContourTracking tracker = new ContourTracking();
+		tracker.geometry = scene.fGeometry;
+		tracker.fixedGeometry = true;
+		tracker.window = new HeadlessListener(tracker);
+		return tracker;
+	}
+
+	private List<Benchmark> benchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("ingest") {
+			final int[] above = new int[Constants.NREADINGS], below = new int[Constants.NREADINGS];
+			Scene fScene;
+			Data fData;
+			int fRound;
+
+			void setup(Scene scene) {
+				Arrays.fill(above, ABOVE);
+				Arrays.fill(below, BELOW);
+				fScene = scene;
+				fData = new Data(newTracker(scene), null);
+				fRound = 0;
+			}
+
+			int run() {
+				int[] samples = fScene.fSamples[fRound % FRAMES];
+				long timestamp = (long)(fRound + 1) * Constants.NREADINGS * Constants.DEFAULT_INTERVAL;
+				for(int i = 0; i < samples.length; i++)
+					fData.update(i + 1, fRound & 0xFFFF, samples[i] == ABOVE ? above : below, timestamp, true);
+				fRound++;
+				fSink += fData.maxX();
+				return samples.length;
+			}
+
+			void teardown() {
+				fData = null;
+			}
+		});
+		benchmarks.add(new Benchmark("snapshot") {
+			Scene fScene;
+			ThresholdGrid fGrid;
+			BlobLabeller fLabeller = new BlobLabeller();
+			int fFrame;
+
+			void setup(Scene scene) {
+				fScene = scene;
+				fGrid = new ThresholdGrid(scene.fGeometry, Constants.DEFAULT_THRESHOLD);
+			}
+
+			int run() {
+				int[] samples = fScene.fSamples[fFrame % FRAMES];
+				long timestamp = (long)fFrame * Constants.DEFAULT_INTERVAL;
+				for(int i = 0; i < samples.length; i++)
+					fGrid.update(i + 1, samples[i], timestamp);
+				fGrid.relabel(fLabeller);
+				fSink += new ContourTracking.Snapshot(fGrid).blobCount();
+				fFrame++;
+				return 1;
+			}
+		});
+		benchmarks.add(new Benchmark("detect") {
+			ContourTracking fTracker;
+			List<ContourTracking.Snapshot> fSnapshots;
+
+			void setup(Scene scene) {
+				fTracker = newTracker(scene);
+				fSnapshots = scene.snapshots();
+			}
+
+			int run() {
+				for(int f = 1; f < FRAMES; f++) {
+					ContourTracking.Snapshot snapshot = fSnapshots.get(f);
+					fTracker.detect(fSnapshots.get(f - 1), snapshot);
+					fSink += snapshot.getBlobEvents().size();
+				}
+				return FRAMES - 1;
+			}
+
+			void teardown() {
+				fSnapshots = null;
+			}
+		});
+		benchmarks.add(new Benchmark("contours") {
+			List<ContourTracking.Snapshot> fSnapshots;
+			int fFrame;
+
+			void setup(Scene scene) {
+				fSnapshots = scene.snapshots();
+			}
+
+			int run() {
+				fSink += new ContourGeometry(fSnapshots.get(fFrame++ % FRAMES)).getCurves().size();
+				return 1;
+			}
+
+			void teardown() {
+				fSnapshots = null;
+			}
+		});
+		benchmarks.add(new Benchmark("paint") {
+			BufferedImage fImage = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+			List<ContourTracking.Snapshot> fSnapshots;
+			int fFrame;
+
+			void setup(Scene scene) {
+				fSnapshots = scene.snapshots();
+			}
+
+			int run() {
+				java.awt.Graphics g = fImage.createGraphics();
+				new MoteGridPainter(fSnapshots.get(fFrame++ % FRAMES)).paintComponent(g, 800, 600);
+				g.dispose();
+				fSink += fImage.getRGB(400, 300);
+				return 1;
+			}
+
+			void teardown() {
+				fSnapshots = null;
+			}
+		});
+		benchmarks.add(new Benchmark("write") {
+			ByteArrayOutputStream fBytes = new ByteArrayOutputStream();
+			List<ContourTracking.Snapshot> fSnapshots;
+
+			void setup(Scene scene) {
+				fSnapshots = scene.snapshots();
+			}
+
+			int run() throws IOException {
+				fBytes.reset();
+				RecordingWriter writer = new RecordingWriter(fBytes);
+				for(ContourTracking.Snapshot snapshot: fSnapshots)
+					writer.write(snapshot);
+				writer.close();
+				fSink += fBytes.size();
+				return FRAMES;
+			}
+
+			void teardown() {
+				fSnapshots = null;
+			}
+		});
+		benchmarks.add(new Benchmark("read") {
+			byte[] fRecording;
+
+			void setup(Scene scene) throws IOException {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				RecordingWriter writer = new RecordingWriter(bytes);
+				for(ContourTracking.Snapshot snapshot: scene.snapshots())
+					writer.write(snapshot);
+				writer.close();
+				fRecording = bytes.toByteArray();
+			}
+
+			int run() throws IOException {
+				RecordingReader reader = new RecordingReader(new ByteArrayInputStream(fRecording));
+				int frames = 0;
+				ContourTracking.Snapshot snapshot;
+				while((snapshot = reader.read()) != null) {
+					fSink += snapshot.blobCount();
+					frames++;
+				}
+				reader.close();
+				return frames;
+			}
+
+			void teardown() {
+				fRecording = null;
+			}
+		});
+		return benchmarks;
+	}
+
+	/* Run benchmark for ms milliseconds. Returns the mean time per operation
+	   in nanoseconds. */
+	private double measure(Benchmark benchmark, long ms) throws IOException {
+		long ops = 0, start = System.nanoTime(), end = start + ms * 1000000L, now;
+		do {
+			ops += benchmark.run();
+			now = System.nanoTime();
+		} while(now < end);
+		return (double)(now - start) / ops;
+	}
+
+	void run(List<int[]> grids, int[] blobCounts) throws IOException {
+		File file = new File(fResults);
+		boolean fresh = !file.exists();
+		PrintWriter results = new PrintWriter(new FileWriter(file, true));
+		if(fresh)
+			results.println("date,java,benchmark,width,height,blobs,ns/op,error");
+		String date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+		String java = System.getProperty("java.version");
+
+		fOut.printf("%-10s %9s %6s %14s %12s%n", "benchmark", "grid", "blobs", "ns/op", "error");
+		for(Benchmark benchmark: benchmarks()) {
+			if(!fOnly.isEmpty() && !fOnly.contains(benchmark.fName))
+				continue;
+
+			for(int[] grid: grids) {
+				for(int blobs: blobCounts) {
+					Scene scene = new Scene(grid[0], grid[1], blobs, 42);
+					System.gc();
+					benchmark.setup(scene);
+					measure(benchmark, fWarmup);
+					double[] times = new double[ITERATIONS];
+					double mean = 0, variance = 0;
+					for(int i = 0; i < ITERATIONS; i++) {
+						times[i] = measure(benchmark, fTime);
+						mean += times[i] / ITERATIONS;
+					}
+					for(int i = 0; i < ITERATIONS; i++)
+						variance += (times[i] - mean) * (times[i] - mean) / Math.max(1, ITERATIONS - 1);
+					benchmark.teardown();
+
+					double error = Math.sqrt(variance);
+					fOut.printf("%-10s %9s %6d %14.1f %12.1f%n", benchmark.fName, grid[0] + "x" + grid[1], blobs, mean, error);
+					results.printf(Locale.US, "%s,%s,%s,%d,%d,%d,%.1f,%.1f%n", date, java, benchmark.fName, grid[0], grid[1], blobs, mean, error);
+					results.flush();
+				}
+			}
+		}
+		results.close();
+		fOut.println("(sink " + fSink + ") results appended to " + file);
+	}
+
+	public static void main(String[] args) {
+		/* paint draws on an image, with no display */
+		System.setProperty("java.awt.headless", "true");
+		TrackingBenchmark bench = new TrackingBenchmark();
+		List<int[]> grids = new ArrayList<int[]>();
+		int[] blobCounts = { 1, 4, 16 };
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if(arg.equals("-grids") && i + 1 < args.length) {
+					for(String grid: args[++i].split(",")) {
+						String[] size = grid.split("x");
+						grids.add(new int[] { Integer.parseInt(size[0]), Integer.parseInt(size[1]) });
+					}
+				} else if(arg.equals("-blobs") && i + 1 < args.length) {
+					String[] counts = args[++i].split(",");
+					blobCounts = new int[counts.length];
+					for(int c = 0; c < counts.length; c++)
+						blobCounts[c] = Integer.parseInt(counts[c]);
+				} else if(arg.equals("-warmup") && i + 1 < args.length) {
+					bench.fWarmup = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-time") && i + 1 < args.length) {
+					bench.fTime = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-results") && i + 1 < args.length) {
+					bench.fResults = args[++i];
+				} else if(arg.equals("-only") && i + 1 < args.length) {
+					bench.fOnly.addAll(Arrays.asList(args[++i].split(",")));
+				} else {
+					throw new IllegalArgumentException(arg);
+				}
+			}
+		} catch(RuntimeException e) {
+			System.err.println("usage: TrackingBenchmark [-grids <width>x<height>,...] [-blobs <n>,...]\n"
+				+ "         [-warmup <ms>] [-time <ms per iteration>] [-results <file>]\n"
+				+ "         [-only ingest,snapshot,detect,contours,paint,write,read]");
+			System.exit(2);
+		}
+		if(grids.isEmpty()) {
+			grids.add(new int[] { 16, 16 });
+			grids.add(new int[] { 32, 32 });
+			grids.add(new int[] { 64, 64 });
+		}
+
+		System.setOut(DISCARD);
+		try {
+			bench.run(grids, blobCounts);
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+/* What ContourTracking tells its user interface: the Swing Window, or a
+   HeadlessListener when running without a display. An interface rather
+   than Window itself, so that a headless tracker never loads AWT or Swing
+   classes. Methods may be called from any thread. */
+interface TrackingListener {
+	/* Notification: new node. */
+	void newNode(int nodeId);
+
+	/* Notification: new data. Called on the thread receiving messages. */
+	void newData();
+
+	/* Notification: sample period changed. */
+	void updateSamplePeriod();
+
+	/* Show the latest event */
+	void showText(String text);
+
+	/* Notification: recording stopped, having written written snapshots and
+	   dropped dropped (see AsyncRecordingWriter). */
+	void recordingStopped(long written, long dropped);
+
+	void error(String msg);
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Runs the periodic time-sync beacon and the tracker on threads of their
+   own, so that a slow tracking pass never delays a beacon.
+
+   Beacons go out every BEACON_PERIOD milliseconds. Tracking is driven by
+   data: each arriving message asks for a pass, and requests are coalesced
+   into at most one pending pass, started no sooner than one sampling period
+   after the previous one. The tracker so keeps up with the motes' sampling
+   rate (20 passes a second at 50 ms) without spinning on every message. */
+class TrackingScheduler {
+	static final int BEACON_PERIOD = 500;
+
+	private final ContourTracking fParent;
+	private final ScheduledExecutorService fBeacons = Executors.newSingleThreadScheduledExecutor(new Named("beacon"));
+	private final ScheduledExecutorService fTracker = Executors.newSingleThreadScheduledExecutor(new Named("tracker"));
+	private final AtomicBoolean fPending = new AtomicBoolean();
+	private volatile long fLastPass;
+
+	private final Runnable fBeacon = new Runnable() {
+		public void run() {
+			try {
+				fParent.sendBeacon();
+			} catch(RuntimeException e) {
+				// keep beaconing
+				e.printStackTrace();
+			}
+		}
+	};
+
+	private final Runnable fTrack = new Runnable() {
+		public void run() {
+			fPending.set(false);
+			fLastPass = System.currentTimeMillis();
+			try {
+				fParent.track();
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	};
+
+	TrackingScheduler(ContourTracking parent) {
+		fParent = parent;
+	}
+
+	void start() {
+		fBeacons.scheduleAtFixedRate(fBeacon, 0, BEACON_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/* Ask for a tracking pass. Never blocks. */
+	void requestTrack() {
+		if(!fPending.compareAndSet(false, true))
+			return;
+
+		long delay = fLastPass + fParent.interval - System.currentTimeMillis();
+		fTracker.schedule(fTrack, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	void stop() {
+		fBeacons.shutdownNow();
+		fTracker.shutdownNow();
+	}
+
+	/* Like the Timer these replace, the threads keep the program running,
+	   which is what a headless tracker relies on */
+	private static class Named implements ThreadFactory {
+		private final String fName;
+
+		Named(String name) {
+			fName = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			return new Thread(r, fName);
+		}
+	}
+}
@@ -14,9 +14,10 @@ import javax.swing.event.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /* The main GUI object. Build the GUI and coordinate all user activities */
-class Window {
+class Window implements TrackingListener {
 	ContourTracking parent;
 	Graph graph;
 	MoteGrid grid;
@@ -257,6 +258,18 @@ class Window {
 				} );
 		yText.setText(graph.gy0 + " - " + graph.gy1);
 
+		// Diagnostic output on the console (see Trace).
+		JLabel traceLabel = makeLabel("Trace:", JLabel.RIGHT);
+		final JComboBox<Trace.Level> traceBox = new JComboBox<Trace.Level>(Trace.Level.values());
+		traceBox.setFont(normalFont);
+		traceBox.setMaximumSize(traceBox.getPreferredSize());
+		traceBox.setSelectedItem(Trace.getLevel());
+		traceBox.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+				Trace.setLevel((Trace.Level)traceBox.getSelectedItem());
+				}
+				});
+
 		Box controls = new Box(BoxLayout.X_AXIS);
 		controls.add(clearButton);
 		controls.add(recButton);
@@ -272,6 +285,8 @@ class Window {
 		controls.add(xControl);
 		controls.add(yLabel);
 		controls.add(yText);
+		controls.add(traceLabel);
+		controls.add(traceBox);
 		main.add(controls, BorderLayout.SOUTH);
 
 		// The frame part
@@ -347,7 +362,7 @@ class Window {
 	}
 
 	/* Notification: sample period changed. */
-	void updateSamplePeriod() {
+	public void updateSamplePeriod() {
 		sampleText.setText("" + parent.interval);
 	}
 
@@ -356,18 +371,41 @@ class Window {
 		thresholdText.setText("" + parent.threshold);
 	}
 
-	/* Notification: new node. */
-	void newNode(int nodeId) {
-		moteListModel.newNode(nodeId);
+	/* Notification: new node. Called on the thread receiving messages; the
+		 mote list is only changed on the event thread, where the table and
+		 the graph read it. */
+	public void newNode(final int nodeId) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				moteListModel.newNode(nodeId);
+			}
+		});
+	}
+
+	/* Notification: new data. Called on the thread receiving messages, so
+		 only schedule a GUI update on the event thread if none is pending:
+		 however fast data comes in, the GUI catches up once per frame. */
+	private final AtomicBoolean newDataPending = new AtomicBoolean();
+	private final Runnable newDataUpdate = new Runnable() {
+		public void run() {
+			newDataPending.set(false);
+			graph.newData();
+			grid.repaint();
+		}
+	};
+
+	public void newData() {
+		if (newDataPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(newDataUpdate);
+		}
 	}
 
-	/* Notification: new data. */
-	void newData() {
-		graph.newData();
-		grid.repaint();
+	/* Notification: recording stopped. */
+	public void recordingStopped(long written, long dropped) {
+		showText("Recorded " + written + " snapshots" + (dropped > 0 ? ", dropped " + dropped : ""));
 	}
 
-	void error(String msg) {
+	public void error(String msg) {
 		JOptionPane.showMessageDialog(frame, msg, "Error",
 				JOptionPane.ERROR_MESSAGE);
 	}